@@ -6,8 +6,6 @@
 package com.tbodt.jswerve.examples.name;
 
 import com.tbodt.jswerve.Controller;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 
 /**
  *
@@ -15,22 +13,7 @@ import java.io.StringWriter;
  */
 public class NameController extends Controller {
     public void index() {
-        StringWriter sw = new StringWriter();
-        PrintWriter out = new PrintWriter(sw, true);
-        out.println("<!DOCTYPE html>");
-        out.println("<html>");
-        out.println("<head>");
-        out.println("<title>The Name Website</title>");
-        out.println("</head>");
-        out.println("<body>");
-        out.println("<form method=\"POST\" action=\"/\">");
-        out.println("<label for=\"name-field\">Enter your name:</label>");
-        out.println("<input type=\"text\" name=\"name\" id=\"name-field\" /><br />");
-        out.println("<input type=\"submit\" />");
-        out.println("</form>");
-        out.println("</body>");
-        out.println("</html>");
-        renderText(sw.toString(), "text/html");
+        renderTemplate("index.html", "The Name Website");
     }
 
     public void submit() {
@@ -38,17 +21,7 @@ public class NameController extends Controller {
     }
 
     public void hello() {
-        StringWriter sw = new StringWriter();
-        PrintWriter out = new PrintWriter(sw, true);
-        out.println("<!DOCTYPE html>");
-        out.println("<html>");
-        out.println("<head>");
-        out.println("<title>Hello, " + getParam("name") + "!</title>");
-        out.println("</head>");
-        out.println("<body>");
-        out.println("Hello world! Your name is " + getParam("name") + ".");
-        out.println("</body>");
-        out.println("</html>");
-        renderText(sw.toString(), "text/html");
+        String name = getParam("name");
+        renderTemplate("hello.html", name, "Hello, " + name + "!");
     }
 }
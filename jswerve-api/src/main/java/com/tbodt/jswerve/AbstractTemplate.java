@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A template that only has to know how to render itself to a {@link TemplateOutput}. Rendering it
+ * to a string is done by rendering it to memory. Generated templates extend this.
+ *
+ * Buffers for the output are sized from a {@link SizeEstimate} of how big the output usually is, so
+ * that they don't have to grow while the template renders.
+ *
+ * @author Theodore Dubois
+ */
+public abstract class AbstractTemplate implements Template {
+    private static final int MAX_BUFFER = 8192;
+    private static final SizeEstimate DEFAULT_ESTIMATE = new SizeEstimate(256);
+
+    @Override
+    public String render() {
+        return render((FragmentCache) null);
+    }
+
+    /**
+     * Render the template to a string, with fragments cached in the cache.
+     *
+     * @param fragmentCache the cache, or {@code null} to render every fragment
+     * @return the result of rendering the template
+     */
+    public String render(FragmentCache fragmentCache) {
+        SizeEstimate estimate = getSizeEstimate();
+        TemplateOutput out = new TemplateOutput(estimate.get());
+        out.setFragmentCache(fragmentCache);
+        try {
+            render(out);
+        } catch (IOException ex) {
+            throw new WTFException("TemplateOutput threw an IOException in memory!", ex);
+        }
+        estimate.record((int) out.size()); // it all fit in an array, so it fits in an int
+        return out.toString();
+    }
+
+    /**
+     * Render the template to the output.
+     *
+     * @param out the output
+     * @throws IOException if the output throws one
+     */
+    public abstract void render(TemplateOutput out) throws IOException;
+
+    /**
+     * Render the template to the output stream, with a buffer that is no bigger than the output is
+     * likely to be.
+     *
+     * @param stream the output stream
+     * @throws IOException if the output stream throws one
+     */
+    public void render(OutputStream stream) throws IOException {
+        render(stream, null);
+    }
+
+    /**
+     * Render the template to the output stream like {@link #render(OutputStream)}, with fragments
+     * cached in the cache.
+     *
+     * @param stream the output stream
+     * @param fragmentCache the cache, or {@code null} to render every fragment
+     * @throws IOException if the output stream throws one
+     */
+    public void render(OutputStream stream, FragmentCache fragmentCache) throws IOException {
+        SizeEstimate estimate = getSizeEstimate();
+        TemplateOutput out = new TemplateOutput(stream, Math.max(Math.min(estimate.get(), MAX_BUFFER), 64));
+        out.setFragmentCache(fragmentCache);
+        render(out);
+        out.flush();
+        estimate.record((int) Math.min(out.size(), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Return the estimate of how big the output of the template is. Generated templates keep one
+     * per class, starting from the size of their static text. The default implementation returns
+     * an estimate shared by every template that doesn't override this.
+     *
+     * @return the estimate of how big the output of the template is
+     */
+    protected SizeEstimate getSizeEstimate() {
+        return DEFAULT_ESTIMATE;
+    }
+}
@@ -17,6 +17,8 @@
 package com.tbodt.jswerve;
 
 import com.tbodt.jswerve.util.UrlUtils;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.*;
 
@@ -27,8 +29,12 @@ import java.util.*;
  */
 public final class Content {
     private final byte[] data;
+    private final ContentProducer producer;
+    private final RequestBody body;
     private final String mimeType;
     private final Map<String, String> mimeParameters;
+    private final String contentType; // with the parameters as they were, for parseMultipart
+    private byte[] produced; // the produced data, once something has asked for it in memory
 
     /**
      * Empty content, 0 bytes long and with no MIME type.
@@ -42,7 +48,36 @@ public final class Content {
      * @param mimeType the MIME type
      */
     public Content(byte[] data, String mimeType) {
+        this(data, null, null, mimeType);
+    }
+
+    /**
+     * Construct a {@code Content} whose data is produced when it is written out, with the given
+     * MIME type. The mime type is parsed for MIME parameters.
+     *
+     * @param producer what produces the data
+     * @param mimeType the MIME type
+     */
+    public Content(ContentProducer producer, String mimeType) {
+        this(null, producer, null, mimeType);
+    }
+
+    /**
+     * Construct a {@code Content} whose data is a request body, which isn't read until something
+     * asks for it, with the given MIME type. The mime type is parsed for MIME parameters.
+     *
+     * @param body the request body
+     * @param mimeType the MIME type
+     */
+    public Content(RequestBody body, String mimeType) {
+        this(null, null, body, mimeType);
+    }
+
+    private Content(byte[] data, ContentProducer producer, RequestBody body, String mimeType) {
         this.data = data;
+        this.producer = producer;
+        this.body = body;
+        this.contentType = mimeType;
         if (mimeType != null && mimeType.contains(";")) {
             this.mimeType = mimeType.substring(0, mimeType.indexOf(';')).toLowerCase();
             mimeParameters = decodeMimeParameters(mimeType.substring(mimeType.indexOf(';') + 1));
@@ -60,8 +95,8 @@ public final class Content {
             int equalIndex = parameter.indexOf('=');
             if (equalIndex == -1)
                 continue;
-            String key = UrlUtils.decode(parameter.substring(0, equalIndex)).trim().toLowerCase();
-            String value = UrlUtils.decode(parameter.substring(equalIndex + 1));
+            String key = decode(parameter.substring(0, equalIndex)).trim().toLowerCase();
+            String value = decode(parameter.substring(equalIndex + 1));
             if (key.length() == 0)
                 continue;
             if (value.startsWith("\"") && value.endsWith("\""))
@@ -72,6 +107,14 @@ public final class Content {
 
     }
 
+    private static String decode(String string) {
+        try {
+            return UrlUtils.decode(string);
+        } catch (IllegalArgumentException ex) {
+            return string; // a % that isn't an escape, which is fine in a MIME parameter
+        }
+    }
+
     /**
      * If the data is HTML form parameters, parse it as such and return the result. If it is not, return an empty map.
      * 
@@ -79,18 +122,168 @@ public final class Content {
      */
     public Map<String, String> parseFormParameters() {
         if (mimeType != null && mimeType.equals("application/x-www-form-urlencoded"))
-            return UrlEncodedFormParser.parse(new String(getData(), Charset.forName("US-ASCII")));
+            return UrlEncodedFormParser.parse(new String(bytes(), Charset.forName("US-ASCII")));
         else
             return Collections.emptyMap();
     }
 
     /**
-     * Return the data. The resulting array can be modified without fear of the apocalypse.
+     * Parse the data as a multipart body, such as a {@code multipart/form-data} form, and give
+     * each part to the handler as it arrives. A request body that hasn't been read yet is
+     * streamed straight from the client, so uploads aren't kept in memory, and then it can't be
+     * read again.
+     *
+     * @param handler the handler
+     * @throws IOException if the data can't be read, or the handler throws one
+     * @throws StatusCodeException with {@link StatusCode#UNSUPPORTED_MEDIA_TYPE} if the data
+     * isn't a multipart body, or {@link StatusCode#BAD_REQUEST} if it is malformed
+     */
+    public void parseMultipart(PartHandler handler) throws IOException {
+        // not from mimeParameters, which are URL-decoded, while a boundary can have + and % in it
+        String boundary = null;
+        if (contentType != null)
+            boundary = Part.parseParameters(contentType).get("boundary");
+        if (mimeType == null || !mimeType.startsWith("multipart/") || boundary == null)
+            throw StatusCodeException.of(StatusCode.UNSUPPORTED_MEDIA_TYPE);
+        InputStream in = openStream();
+        try {
+            new MultipartParser(in, boundary).parse(handler);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Create a temporary file for something that came out of the data. If the data is a request
+     * body, the file is deleted when the body is closed.
+     */
+    File createTempFile() throws IOException {
+        if (body != null)
+            return body.createTempFile();
+        File file = File.createTempFile("jswerve-upload", ".tmp");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Return the data. The resulting array can be modified without fear of the apocalypse. If
+     * the data is produced when it is written out, it is produced into memory, only the first
+     * time.
+     *
+     * Since this copies the data, it's not what you want for big bodies. Use
+     * {@link #asByteBuffer()}, {@link #openStream()}, or {@link #writeTo(OutputStream)} instead.
      *
      * @return the data
      */
     public byte[] getData() {
-        return data.clone();
+        return bytes().clone();
+    }
+
+    /**
+     * Return a read-only view of the data. The data isn't copied, unless it is produced when it
+     * is written out, in which case it is produced into memory the first time. A request body is
+     * read all the way, and if it is too big for memory, the view is of a temporary file.
+     *
+     * @return a read-only view of the data
+     */
+    public ByteBuffer asByteBuffer() {
+        if (body != null)
+            return body.asByteBuffer();
+        return ByteBuffer.wrap(bytes()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Return a stream that reads the data. The data isn't copied, unless it is produced when it
+     * is written out, in which case it is produced into memory the first time. A request body
+     * that hasn't been read yet is streamed straight from the client, and then it can't be read
+     * again.
+     *
+     * @return a stream that reads the data
+     */
+    public InputStream openStream() {
+        if (body != null)
+            return body.openStream();
+        return new ByteArrayInputStream(bytes());
+    }
+
+    /**
+     * Write the data to the output stream. If the data is produced when it is written out and
+     * hasn't been produced into memory yet, it goes straight to the output stream without being
+     * kept in memory, and so does a request body that hasn't been read yet. Otherwise, it is
+     * written without being copied.
+     *
+     * @param out the output stream
+     * @throws IOException if the output stream throws one
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (producer != null) {
+            byte[] produced = getProduced();
+            if (produced != null)
+                out.write(produced);
+            else
+                producer.writeTo(out);
+        } else if (body != null)
+            body.writeTo(out);
+        else
+            out.write(data);
+    }
+
+    /**
+     * Return the length of the data in bytes, or -1 if it isn't known ahead of time. It isn't
+     * known if the data is produced when it is written out and hasn't been produced into memory
+     * yet, or if it is a request body whose length the client didn't say.
+     *
+     * @return the length of the data, or -1
+     */
+    public long getLength() {
+        if (producer != null) {
+            byte[] produced = getProduced();
+            return produced == null ? -1 : produced.length;
+        } else if (body != null)
+            return body.getLength();
+        else
+            return data.length;
+    }
+
+    /**
+     * Return the data without copying it, for use only inside this class.
+     */
+    private byte[] bytes() {
+        if (producer != null)
+            return produce();
+        else if (body != null)
+            return body.bytes();
+        else
+            return data;
+    }
+
+    /**
+     * Produce the data into memory, if it hasn't been already, so the producer only runs once.
+     */
+    private synchronized byte[] produce() {
+        if (produced == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                producer.writeTo(bytes);
+            } catch (IOException ex) {
+                throw new WTFException("ByteArrayOutputStream threw an IOException!", ex);
+            }
+            produced = bytes.toByteArray();
+        }
+        return produced;
+    }
+
+    private synchronized byte[] getProduced() {
+        return produced;
+    }
+
+    /**
+     * Return whether the data is produced when it is written out, instead of being in memory.
+     *
+     * @return whether the data is produced when it is written out
+     */
+    public boolean isProduced() {
+        return producer != null;
     }
 
     /**
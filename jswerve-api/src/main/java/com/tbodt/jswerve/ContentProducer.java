@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the data of a {@link Content} when it is written out, instead of the data being in
+ * memory ahead of time.
+ *
+ * @author Theodore Dubois
+ */
+public interface ContentProducer {
+
+    /**
+     * Write the data to the output stream.
+     *
+     * @param out the output stream
+     * @throws IOException if the output stream throws one
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
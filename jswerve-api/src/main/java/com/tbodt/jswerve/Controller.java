@@ -17,6 +17,8 @@
 package com.tbodt.jswerve;
 
 import com.tbodt.jswerve.*;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 
 /**
@@ -27,6 +29,11 @@ import java.nio.charset.Charset;
 public abstract class Controller {
     private Request request;
     private Response response;
+    private StatusCodeException failure;
+    private boolean async;
+    private ResponseListener listener;
+    private TemplateLookup templates;
+    private FragmentCache fragmentCache;
 
     /**
      * Return the request that this controller is currently servicing.
@@ -46,6 +53,48 @@ public abstract class Controller {
         this.request = request;
     }
 
+    /**
+     * Set where the controller looks up templates by name. This method is intended to only be
+     * called by JSwerve itself. It is public because the code that calls it is in another package.
+     *
+     * @param templates where to look up templates
+     */
+    public final void setTemplates(TemplateLookup templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * Set the cache of the website, which templates the controller renders cache fragments in. This
+     * method is intended to only be called by JSwerve itself.
+     *
+     * @param fragmentCache the fragment cache
+     */
+    public final void setFragmentCache(FragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * Forget the request and the response, so that the controller can service another request. This
+     * is only done to controllers that are {@link Reusable}.
+     */
+    public final synchronized void recycle() {
+        request = null;
+        response = null;
+        failure = null;
+        async = false;
+        listener = null;
+        templates = null;
+        fragmentCache = null;
+        reset();
+    }
+
+    /**
+     * Clear any state the controller keeps between a request and the next one. This is called when
+     * a {@link Reusable} controller is recycled. The default implementation does nothing.
+     */
+    protected void reset() {
+    }
+
     /**
      * Return the request parameter with the given name.
      *
@@ -86,6 +135,78 @@ public abstract class Controller {
         render(status, Headers.EMPTY_HEADERS, new Content(text.getBytes(Charset.forName("UTF-8")), contentType));
     }
 
+    /**
+     * Return a new instance of a template in the same package as the controller, looked up by
+     * name. If the website loads templates at runtime, this is the latest version of the template.
+     *
+     * @param name the name of the template, which is the name of its file without {@code .jtl}, such
+     * as {@code hello.html}
+     * @param args the template's parameters
+     * @return a new instance of the template
+     * @throws IllegalArgumentException if there is no such template, or it doesn't take those
+     * parameters
+     */
+    protected final Template template(String name, Object... args) {
+        return templates.newTemplate(name, args);
+    }
+
+    /**
+     * Render a template in the same package as the controller, looked up by name, with the text/html
+     * MIME type. If the website loads templates at runtime, this renders the latest version of the
+     * template.
+     *
+     * @param name the name of the template, which is the name of its file without {@code .jtl}, such
+     * as {@code hello.html}
+     * @param args the template's parameters
+     * @throws IllegalArgumentException if there is no such template, or it doesn't take those
+     * parameters
+     */
+    protected final void renderTemplate(String name, Object... args) {
+        renderTemplate(template(name, args));
+    }
+
+    /**
+     * Render the template, with the text/html MIME type. The template isn't rendered right away;
+     * it is streamed to the client when the response is sent.
+     *
+     * @param template the template
+     */
+    protected final void renderTemplate(Template template) {
+        renderTemplate(template, "text/html");
+    }
+
+    /**
+     * Render the template with the given MIME type. The template isn't rendered right away; it is
+     * streamed to the client when the response is sent.
+     *
+     * @param template the template
+     * @param contentType the MIME type
+     */
+    protected final void renderTemplate(final Template template, String contentType) {
+        final FragmentCache cache = fragmentCache;
+        render(StatusCode.OK, Headers.EMPTY_HEADERS, new Content(new ContentProducer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                if (template instanceof AbstractTemplate)
+                    ((AbstractTemplate) template).render(out, cache); // with a buffer the right size
+                else
+                    out.write(template.render().getBytes(Charset.forName("UTF-8")));
+            }
+        }, contentType));
+    }
+
+    /**
+     * Throw away the cached template fragments whose keys start with the prefix, because what they
+     * were rendered from has changed. Only the fragments of this controller's website are thrown
+     * away.
+     *
+     * @param prefix the prefix
+     * @return the number of fragments thrown away
+     */
+    protected final int invalidateFragments(String prefix) {
+        return fragmentCache != null ? fragmentCache.invalidate(prefix) : 0;
+    }
+
     /**
      * Render a redirect to the given path with a status of See Other.
      *
@@ -102,13 +223,83 @@ public abstract class Controller {
      * @param status the status
      */
     protected final void redirectTo(String path, StatusCode status) {
-        render(status, Headers.builder().header("location", path).build(), Content.EMPTY);
+        render(status, Headers.builder().header(Headers.LOCATION, path).build(), Content.EMPTY);
     }
 
     private void render(StatusCode status, Headers headers, Content content) {
-        if (response != null)
-            throw new DoubleRenderException();
-        response = new Response(status, headers, content);
+        Response rendered = new Response(status, headers, content);
+        ResponseListener notify;
+        synchronized (this) {
+            if (response != null || failure != null)
+                throw new DoubleRenderException();
+            response = rendered;
+            notify = listener;
+        }
+        if (notify != null)
+            notify.responseRendered(rendered);
+    }
+
+    /**
+     * Say that the response will be rendered after the action returns, probably from another thread
+     * once something slow has finished. The request is kept open until one of the render methods or
+     * {@link #fail(Throwable)} is called.
+     */
+    protected final synchronized void async() {
+        async = true;
+    }
+
+    /**
+     * Fail the request instead of rendering a response. This is meant for asynchronous actions,
+     * which can't fail by throwing an exception out of the action. If the cause is a
+     * {@link StatusCodeException}, its status code is used; otherwise the status is Internal Server
+     * Error.
+     *
+     * @param cause why the request failed
+     */
+    protected final void fail(Throwable cause) {
+        StatusCodeException failed;
+        if (cause instanceof StatusCodeException)
+            failed = (StatusCodeException) cause;
+        else
+            failed = new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, cause);
+        ResponseListener notify;
+        synchronized (this) {
+            if (response != null || failure != null)
+                throw new DoubleRenderException();
+            failure = failed;
+            notify = listener;
+        }
+        if (notify != null)
+            notify.requestFailed(failed);
+    }
+
+    /**
+     * Return whether the action said that it would render the response asynchronously.
+     *
+     * @return whether the controller is asynchronous
+     */
+    public final synchronized boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Set the listener that is told when an asynchronous controller renders its response or fails.
+     * If that has already happened, the listener is told right away.
+     *
+     * @param listener the listener
+     */
+    public final void setResponseListener(ResponseListener listener) {
+        Response rendered;
+        StatusCodeException failed;
+        synchronized (this) {
+            this.listener = listener;
+            rendered = response;
+            failed = failure;
+        }
+        if (rendered != null)
+            listener.responseRendered(rendered);
+        else if (failed != null)
+            listener.requestFailed(failed);
     }
 
     /**
@@ -116,7 +307,16 @@ public abstract class Controller {
      *
      * @return the rendered response, or {@code null} if a render has not happened yet
      */
-    public final Response getResponse() {
+    public final synchronized Response getResponse() {
         return response;
     }
+
+    /**
+     * Return why the request failed, or {@code null} if {@link #fail(Throwable)} has not been called.
+     *
+     * @return why the request failed, or {@code null}
+     */
+    public final synchronized StatusCodeException getFailure() {
+        return failure;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+/**
+ * A dispatcher that matches paths against the routes and calls controller actions with code that
+ * was generated for the routes, instead of with a trie and reflection. The website still caches
+ * routed paths, and answers paths that match no route. Dispatchers are generated at build time by
+ * the {@code generate-dispatcher} goal of the JSwerve Maven plugin, out of the website's
+ * {@link RoutesDefiner}. You shouldn't need to write one yourself.
+ *
+ * Routes are numbered in the order the {@code RoutesDefiner} returns them. A website only uses a
+ * dispatcher if the routes it was generated from are still the ones the {@code RoutesDefiner}
+ * returns.
+ *
+ * @author Theodore Dubois
+ */
+public interface Dispatcher {
+
+    /**
+     * Return a new instance of the {@link RoutesDefiner} that this dispatcher was generated from.
+     *
+     * @return a new instance of the {@code RoutesDefiner}
+     */
+    RoutesDefiner getRoutesDefiner();
+
+    /**
+     * Return the routes that this dispatcher was generated from, as their {@link Route#toString()
+     * descriptions}, in order.
+     *
+     * @return the descriptions of the routes
+     */
+    String[] getRoutes();
+
+    /**
+     * Return the index of the first route that matches the method and the path, or -1 if none does.
+     *
+     * @param method the method
+     * @param path the path
+     * @return the index of the first route that matches, or -1
+     */
+    int route(HttpMethod method, String path);
+
+    /**
+     * Return a new instance of the controller of a route, made with {@code new}.
+     *
+     * @param route the index of the route
+     * @return a new instance of the route's controller
+     */
+    Controller instantiate(int route);
+
+    /**
+     * Invoke the action of a route on a controller, by calling it directly instead of through
+     * reflection.
+     *
+     * @param route the index of the route
+     * @param controller the controller, which has the class of the route's controller
+     */
+    void invoke(int route, Controller controller);
+}
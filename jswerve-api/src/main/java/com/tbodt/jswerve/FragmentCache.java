@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of rendered template fragments, as UTF-8 bytes, by template and key. Templates cache
+ * fragments with the {@code <@ cache key; ttl @>} directive, and controllers throw them away with
+ * {@link Controller#invalidateFragments(String)} when what they were rendered from changes. Every
+ * website has a cache of its own, which is handed to templates in their {@link TemplateOutput}.
+ *
+ * The cache holds at most a certain number of bytes, counting the keys and a rough guess at what
+ * each entry costs on top of them, so that lots of tiny fragments can't use up the heap. Lookups
+ * don't take any locks. When the cache
+ * is full, entries are evicted with the clock algorithm, like in the route cache: every entry has a
+ * bit that is set when it is used, and the clock hand goes around the entries clearing bits until it
+ * finds one that hasn't been used since the last time around.
+ *
+ * @author Theodore Dubois
+ */
+public final class FragmentCache {
+    // the entry, its map node and the headers of the key and the fragment
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private Entry hand;
+    private long size;
+    private long maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Construct an empty cache that holds at most {@code maxSize} bytes.
+     *
+     * @param maxSize the maximum number of bytes in the cache
+     * @throws IllegalArgumentException if the maximum size is negative
+     */
+    public FragmentCache(long maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Return the fragment a template cached for the key, or {@code null} if there is none or it has
+     * expired. The fragment must not be modified.
+     *
+     * @param template the class name of the template
+     * @param key the key
+     * @return the cached fragment, or {@code null}
+     */
+    public byte[] get(String template, String key) {
+        Entry entry = entries.get(template + '#' + key);
+        if (entry == null || (entry.expires != 0 && System.currentTimeMillis() >= entry.expires)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.used = true;
+        hits.incrementAndGet();
+        return entry.fragment;
+    }
+
+    /**
+     * Cache a fragment for a template, replacing whatever it cached for the key and evicting other
+     * fragments if the cache is full. A fragment that is bigger than the whole cache isn't cached.
+     *
+     * @param template the class name of the template
+     * @param key the key
+     * @param fragment the fragment, which must not be modified afterwards
+     * @param ttl how many milliseconds the fragment stays fresh, or 0 for as long as it's in the
+     * cache
+     */
+    public synchronized void put(String template, String key, byte[] fragment, long ttl) {
+        String id = template + '#' + key;
+        Entry old = entries.remove(id);
+        if (old != null)
+            unlink(old);
+        Entry entry = new Entry(id, fragment, ttl == 0 ? 0 : System.currentTimeMillis() + ttl);
+        if (entry.size > maxSize)
+            return;
+        evict(maxSize - entry.size);
+        link(entry);
+        entries.put(id, entry);
+    }
+
+    /**
+     * Throw away every fragment whose key starts with the prefix, whichever template cached it.
+     *
+     * @param prefix the prefix
+     * @return the number of fragments thrown away
+     */
+    public synchronized int invalidate(String prefix) {
+        List<Entry> invalid = new ArrayList<Entry>();
+        for (Entry entry : entries.values())
+            if (entry.id.startsWith(prefix, entry.id.indexOf('#') + 1))
+                invalid.add(entry);
+        for (Entry entry : invalid) {
+            entries.remove(entry.id);
+            unlink(entry);
+        }
+        return invalid.size();
+    }
+
+    /**
+     * Set the maximum number of bytes in the cache, evicting fragments if there are too many now.
+     *
+     * @param maxSize the maximum number of bytes in the cache
+     * @throws IllegalArgumentException if the maximum size is negative
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maximum size must not be negative");
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * Return the maximum number of bytes in the cache.
+     *
+     * @return the maximum number of bytes in the cache
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Return the number of bytes in the cache, keys and overhead included.
+     *
+     * @return the number of bytes in the cache
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Return the number of lookups that found a fresh fragment.
+     *
+     * @return the number of lookups that found a fresh fragment
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Return the number of lookups that didn't find a fresh fragment.
+     *
+     * @return the number of lookups that didn't find a fresh fragment
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Evict entries until there are at most {@code target} bytes in the cache.
+     */
+    private void evict(long target) {
+        while (size > target) {
+            while (hand.used) {
+                hand.used = false;
+                hand = hand.next;
+            }
+            Entry victim = hand;
+            entries.remove(victim.id);
+            unlink(victim);
+        }
+    }
+
+    /**
+     * Put the entry just behind the hand, so that it is the last one the hand gets to.
+     */
+    private void link(Entry entry) {
+        if (hand == null) {
+            entry.next = entry.previous = entry;
+            hand = entry;
+        } else {
+            entry.next = hand;
+            entry.previous = hand.previous;
+            hand.previous.next = entry;
+            hand.previous = entry;
+        }
+        size += entry.size;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.next == entry)
+            hand = null;
+        else {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            if (hand == entry)
+                hand = entry.next;
+        }
+        size -= entry.size;
+    }
+
+    private static final class Entry {
+        // the class name of the template, then #, then the key; a class name can't have a # in it
+        private final String id;
+        private final byte[] fragment;
+        private final long expires;
+        private final long size;
+        private volatile boolean used;
+        // the clock, which is only touched with the cache locked
+        private Entry next;
+        private Entry previous;
+
+        Entry(String id, byte[] fragment, long expires) {
+            this.id = id;
+            this.fragment = fragment;
+            this.expires = expires;
+            this.size = ENTRY_OVERHEAD + 2L * id.length() + fragment.length;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2014 Theodore Dubois
+ * Copyright (C) 2015 Theodore Dubois
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -24,18 +24,139 @@ import org.apache.commons.lang3.text.WordUtils;
  *
  * This class does not include any code for parsing or formatting headers. It is only a convenient representation.
  *
+ * Header names are case-insensitive. They are kept in an open addressing hash table, hashed with
+ * ASCII case folded in, so looking a header up compares characters in place instead of making a
+ * capitalized copy of the name. The names of well-known headers are the constants in this class, so
+ * looking one up with its constant usually gets by with comparing references. A header can have more
+ * than one value.
+ *
  * @author Theodore Dubois
  */
 public final class Headers implements Iterable<Map.Entry<String, String>> {
+    /**
+     * The name of the {@code Accept} header.
+     */
+    public static final String ACCEPT = "Accept";
+    /**
+     * The name of the {@code Accept-Charset} header.
+     */
+    public static final String ACCEPT_CHARSET = "Accept-Charset";
+    /**
+     * The name of the {@code Accept-Encoding} header.
+     */
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    /**
+     * The name of the {@code Accept-Language} header.
+     */
+    public static final String ACCEPT_LANGUAGE = "Accept-Language";
+    /**
+     * The name of the {@code Allow} header.
+     */
+    public static final String ALLOW = "Allow";
+    /**
+     * The name of the {@code Authorization} header.
+     */
+    public static final String AUTHORIZATION = "Authorization";
+    /**
+     * The name of the {@code Cache-Control} header.
+     */
+    public static final String CACHE_CONTROL = "Cache-Control";
+    /**
+     * The name of the {@code Connection} header.
+     */
+    public static final String CONNECTION = "Connection";
+    /**
+     * The name of the {@code Content-Encoding} header.
+     */
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    /**
+     * The name of the {@code Content-Length} header.
+     */
+    public static final String CONTENT_LENGTH = "Content-Length";
+    /**
+     * The name of the {@code Content-Type} header.
+     */
+    public static final String CONTENT_TYPE = "Content-Type";
+    /**
+     * The name of the {@code Cookie} header.
+     */
+    public static final String COOKIE = "Cookie";
+    /**
+     * The name of the {@code Date} header.
+     */
+    public static final String DATE = "Date";
+    /**
+     * The name of the {@code ETag} header.
+     */
+    public static final String ETAG = "ETag";
+    /**
+     * The name of the {@code Expect} header.
+     */
+    public static final String EXPECT = "Expect";
+    /**
+     * The name of the {@code Host} header.
+     */
+    public static final String HOST = "Host";
+    /**
+     * The name of the {@code If-Modified-Since} header.
+     */
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    /**
+     * The name of the {@code If-None-Match} header.
+     */
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    /**
+     * The name of the {@code Last-Modified} header.
+     */
+    public static final String LAST_MODIFIED = "Last-Modified";
+    /**
+     * The name of the {@code Location} header.
+     */
+    public static final String LOCATION = "Location";
+    /**
+     * The name of the {@code Origin} header.
+     */
+    public static final String ORIGIN = "Origin";
+    /**
+     * The name of the {@code Referer} header.
+     */
+    public static final String REFERER = "Referer";
+    /**
+     * The name of the {@code Set-Cookie} header.
+     */
+    public static final String SET_COOKIE = "Set-Cookie";
+    /**
+     * The name of the {@code Transfer-Encoding} header.
+     */
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    /**
+     * The name of the {@code User-Agent} header.
+     */
+    public static final String USER_AGENT = "User-Agent";
+
+    private static final Field[] WELL_KNOWN = new Field[64];
+
+    static {
+        for (String name : new String[] {
+            ACCEPT, ACCEPT_CHARSET, ACCEPT_ENCODING, ACCEPT_LANGUAGE, ALLOW, AUTHORIZATION, CACHE_CONTROL,
+            CONNECTION, CONTENT_ENCODING, CONTENT_LENGTH, CONTENT_TYPE, COOKIE, DATE, ETAG, EXPECT, HOST,
+            IF_MODIFIED_SINCE, IF_NONE_MATCH, LAST_MODIFIED, LOCATION, ORIGIN, REFERER, SET_COOKIE,
+            TRANSFER_ENCODING, USER_AGENT
+        })
+            insert(WELL_KNOWN, new Field(name));
+    }
+
     /**
      * Empty headers.
      */
-    public static final Headers EMPTY_HEADERS = new Headers(Collections.<String, String>emptyMap());
+    public static final Headers EMPTY_HEADERS = new Headers(new Field[1], new Field[0]);
 
-    private final Map<String, String> headersMap;
+    private final Field[] table;
+    private final Field[] fields;
 
-    private Headers(Map<String, String> headers) {
-        this.headersMap = Collections.unmodifiableMap(headers);
+    private Headers(Field[] table, Field[] fields) {
+        this.table = table;
+        this.fields = fields;
     }
 
     /**
@@ -58,41 +179,56 @@ public final class Headers implements Iterable<Map.Entry<String, String>> {
      * @see Headers#getBuilder()
      */
     public static final class Builder {
-        private final Map<String, String> headersMap;
+        private Field[] table = new Field[16];
+        private final List<Field> fields = new ArrayList<Field>();
         private boolean built = false;
 
         private Builder() {
-            headersMap = new HashMap<String, String>();
         }
 
         private Builder(Headers headers) {
-            headersMap = new HashMap<String, String>(headers.asMap());
+            setHeaders(headers);
         }
 
         /**
-         * Add a header to the builder with the given name and value.
+         * Set the header with the given name to the value, replacing any values it already has.
          *
          * @param name the name
          * @param value the value
          * @return {@code this} for invocation chaining
          */
         public Builder header(String name, String value) {
-            headersMap.put(capitalizeHeader(name), value);
+            List<String> values = field(name).values;
+            values.clear();
+            values.add(value);
             return this;
         }
 
         /**
-         * Add all the headers in {@code headers} to this builder. Equivalent to:
-         * <pre>{@code
-         * for (Map.Entry<String, String> header : headers)
-         *     this.header(header.getKey(), header.getValue());
-         * }</pre> But it's faster.
+         * Add a value to the header with the given name, after any values it already has.
          *
-         * @param headers
-         * @return
+         * @param name the name
+         * @param value the value
+         * @return {@code this} for invocation chaining
+         */
+        public Builder addHeader(String name, String value) {
+            field(name).values.add(value);
+            return this;
+        }
+
+        /**
+         * Add all the headers in {@code headers} to this builder, replacing the values of headers
+         * that are already in it.
+         *
+         * @param headers the headers
+         * @return {@code this} for invocation chaining
          */
         public Builder setHeaders(Headers headers) {
-            headersMap.putAll(headers.headersMap);
+            for (Field header : headers.fields) {
+                List<String> values = field(header.name).values;
+                values.clear();
+                values.addAll(header.values);
+            }
             return this;
         }
 
@@ -106,7 +242,30 @@ public final class Headers implements Iterable<Map.Entry<String, String>> {
             if (built)
                 throw new IllegalStateException();
             built = true;
-            return new Headers(headersMap);
+            for (Field field : fields)
+                field.values = Collections.unmodifiableList(field.values);
+            return new Headers(table, fields.toArray(new Field[fields.size()]));
+        }
+
+        private Field field(String name) {
+            if (built)
+                throw new IllegalStateException();
+            Field field = find(table, name);
+            if (field == null) {
+                if ((fields.size() + 1) * 2 > table.length)
+                    resize();
+                Field wellKnown = find(WELL_KNOWN, name);
+                field = new Field(wellKnown != null ? wellKnown.name : WordUtils.capitalize(name, '-'));
+                insert(table, field);
+                fields.add(field);
+            }
+            return field;
+        }
+
+        private void resize() {
+            table = new Field[table.length * 2];
+            for (Field field : fields)
+                insert(table, field);
         }
     }
 
@@ -129,13 +288,27 @@ public final class Headers implements Iterable<Map.Entry<String, String>> {
     }
 
     /**
-     * Return the header value for the given name.
+     * Return the header value for the given name. If the header has more than one value, return the
+     * first one.
      *
      * @param name the header name
-     * @return the header value for the given name
+     * @return the header value for the given name, or {@code null} if there is no such header
      */
     public String get(String name) {
-        return headersMap.get(capitalizeHeader(name));
+        Field field = find(table, name);
+        return field == null ? null : field.values.get(0);
+    }
+
+    /**
+     * Return all the values of the header with the given name, in the order they were added. The
+     * result is unmodifiable.
+     *
+     * @param name the header name
+     * @return the values of the header, which is empty if there is no such header
+     */
+    public List<String> getAll(String name) {
+        Field field = find(table, name);
+        return field == null ? Collections.<String>emptyList() : field.values;
     }
 
     /**
@@ -145,24 +318,114 @@ public final class Headers implements Iterable<Map.Entry<String, String>> {
      * @return whether the header by the given name is defined
      */
     public boolean contains(String name) {
-        return headersMap.containsKey(capitalizeHeader(name));
+        return find(table, name) != null;
     }
 
+    /**
+     * Return an iterator over the headers, with one entry for every value of every header.
+     *
+     * @return an iterator over the headers
+     */
     @Override
     public Iterator<Map.Entry<String, String>> iterator() {
-        return headersMap.entrySet().iterator();
+        return new Iterator<Map.Entry<String, String>>() {
+            private int field;
+            private int value;
+
+            @Override
+            public boolean hasNext() {
+                return field < fields.length;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Field header = fields[field];
+                Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<String, String>(header.name, header.values.get(value));
+                if (++value == header.values.size()) {
+                    field++;
+                    value = 0;
+                }
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     /**
-     * Return a map representing these headers. The result is unmodifiable.
+     * Return a map representing these headers. The values of a header with more than one value are
+     * joined with commas, the way HTTP allows them to be combined; that doesn't work for
+     * {@code Set-Cookie}, so use {@link #getAll(String)} for that. The result is unmodifiable.
      *
      * @return a map representing these headers
      */
     public Map<String, String> asMap() {
-        return headersMap;
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (Field field : fields) {
+            StringBuilder value = new StringBuilder();
+            for (String part : field.values) {
+                if (value.length() != 0)
+                    value.append(", ");
+                value.append(part);
+            }
+            map.put(field.name, value.toString());
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Field find(Field[] table, String name) {
+        int hash = hash(name);
+        int mask = table.length - 1;
+        for (int i = hash & mask; table[i] != null; i = (i + 1) & mask)
+            if (table[i].hash == hash && (table[i].name == name || equalsIgnoreAsciiCase(table[i].name, name)))
+                return table[i];
+        return null;
     }
 
-    private static String capitalizeHeader(String header) {
-        return WordUtils.capitalize(header, '-');
+    private static void insert(Field[] table, Field field) {
+        int mask = table.length - 1;
+        int i = field.hash & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = field;
+    }
+
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++)
+            hash = 31 * hash + toLowerAscii(name.charAt(i));
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equalsIgnoreAsciiCase(String a, String b) {
+        if (a.length() != b.length())
+            return false;
+        for (int i = 0; i < a.length(); i++)
+            if (toLowerAscii(a.charAt(i)) != toLowerAscii(b.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * A header and its values.
+     */
+    private static final class Field {
+        private final String name;
+        private final int hash;
+        private List<String> values = new ArrayList<String>(1);
+
+        Field(String name) {
+            this.name = name;
+            this.hash = hash(name);
+        }
     }
 }
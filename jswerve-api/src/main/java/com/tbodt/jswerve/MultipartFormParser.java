@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Parses {@code multipart/form-data} bodies into form fields and uploaded files. Fields are kept in
+ * memory, up to a limit, and files are streamed into temporary files as they arrive. The number of
+ * parts and of files is limited too, since every file takes a temporary file.
+ *
+ * @author Theodore Dubois
+ */
+final class MultipartFormParser {
+    private static final int MAX_FIELD_SIZE = 64 * 1024;
+    private static final int MAX_FIELDS_SIZE = 1024 * 1024;
+    private static final int MAX_PARTS = 1000;
+    private static final int MAX_FILES = 100;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Parse the content, putting the fields and files into the maps. A field can have more than one
+     * file, so the files of a field are put in a list in the order they arrived.
+     *
+     * @throws StatusCodeException with {@link StatusCode#REQUEST_ENTITY_TOO_LARGE} if the fields are
+     * too big or there are too many parts or files, or {@link StatusCode#BAD_REQUEST} if the body is
+     * malformed or can't be read
+     */
+    static void parse(final Content content, final Map<String, String> fields, final Map<String, List<UploadedFile>> files) {
+        try {
+            content.parseMultipart(new PartHandler() {
+                private int fieldsSize;
+                private int parts;
+                private int fileCount;
+
+                @Override
+                public void handlePart(Part part, InputStream data) throws IOException {
+                    if (++parts > MAX_PARTS)
+                        throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+                    String name = part.getName();
+                    if (name == null)
+                        return; // it's not a form field
+                    if (part.getFileName() == null) {
+                        byte[] field = readField(data);
+                        fieldsSize += field.length;
+                        if (fieldsSize > MAX_FIELDS_SIZE)
+                            throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+                        fields.put(name, new String(field, UTF_8));
+                    } else if (part.getFileName().length() != 0) {
+                        // browsers send a file with no name when none was picked
+                        if (++fileCount > MAX_FILES)
+                            throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+                        File file = content.createTempFile();
+                        List<UploadedFile> fieldFiles = files.get(name);
+                        if (fieldFiles == null)
+                            files.put(name, fieldFiles = new ArrayList<UploadedFile>());
+                        fieldFiles.add(new UploadedFile(part, file, save(data, file)));
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            throw new StatusCodeException(StatusCode.BAD_REQUEST, ex);
+        }
+    }
+
+    private static byte[] readField(InputStream data) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            field.write(buffer, 0, read);
+            if (field.size() > MAX_FIELD_SIZE)
+                throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+        }
+        return field.toByteArray();
+    }
+
+    private static long save(InputStream data, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                length += read;
+            }
+            return length;
+        } finally {
+            out.close();
+        }
+    }
+
+    private MultipartFormParser() {
+    }
+}
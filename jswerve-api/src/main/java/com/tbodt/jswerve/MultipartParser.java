@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * A streaming parser of multipart bodies, as in RFC 2046. The parts are handed to a
+ * {@link PartHandler} as they arrive, and their data is never all in memory at once.
+ *
+ * Delimiters are found with the Knuth-Morris-Pratt algorithm, with a failure table that is worked
+ * out from the delimiter ahead of time. Each byte of the body is looked at once, and there's no need
+ * to hold on to bytes that might be the start of a delimiter: if they turn out not to be, they're a
+ * prefix of the delimiter, so they can be copied out of the delimiter itself.
+ *
+ * @author Theodore Dubois
+ */
+final class MultipartParser {
+    private static final int MAX_HEADERS_SIZE = 16 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final int[] failure;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+
+    private int partNumber;
+    private int matched;
+    private boolean atDelimiter;
+    // bytes that turned out not to be a delimiter, which are delimiter[0, pendingEnd) and then pendingByte
+    private int pendingStart;
+    private int pendingEnd;
+    private int pendingByte = -1;
+
+    /**
+     * Construct a parser that reads a multipart body from the stream.
+     *
+     * @param in the stream
+     * @param boundary the boundary, from the parameters of the MIME type
+     */
+    MultipartParser(InputStream in, String boundary) {
+        this.in = in;
+        delimiter = ("\r\n--" + boundary).getBytes(UTF_8);
+        failure = new int[delimiter.length];
+        // failure[i] is the length of the longest proper prefix of delimiter[0, i] that's also a suffix of it
+        for (int i = 1, k = 0; i < delimiter.length; i++) {
+            while (k > 0 && delimiter[i] != delimiter[k])
+                k = failure[k - 1];
+            if (delimiter[i] == delimiter[k])
+                k++;
+            failure[i] = k;
+        }
+    }
+
+    /**
+     * Parse the body, giving each part to the handler.
+     *
+     * @param handler the handler
+     * @throws IOException if the body can't be read, or the handler throws one
+     * @throws StatusCodeException with {@link StatusCode#BAD_REQUEST} if the body is malformed
+     */
+    void parse(PartHandler handler) throws IOException {
+        // the first delimiter doesn't have to come after a line break, so pretend there was one
+        matched = 2;
+        skipPart();
+        while (true) {
+            int first = read();
+            int second = read();
+            if (first == '-' && second == '-')
+                return; // that was the last one, and anything after it is ignored
+            // there can be whitespace after a delimiter
+            while (first == ' ' || first == '\t') {
+                first = second;
+                second = read();
+            }
+            if (first != '\r' || second != '\n')
+                throw malformed("no line break after a delimiter");
+            Part part = new Part(readHeaders());
+            handler.handlePart(part, new PartInputStream());
+            skipPart();
+        }
+    }
+
+    private void skipPart() throws IOException {
+        byte[] skipped = new byte[1024];
+        while (readData(skipped, 0, skipped.length) != -1) {
+        }
+        atDelimiter = false;
+        partNumber++;
+    }
+
+    private Headers readHeaders() throws IOException {
+        Headers.Builder headers = Headers.builder();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        String previous = null;
+        int size = 0;
+        while (true) {
+            int b = read();
+            if (++size > MAX_HEADERS_SIZE)
+                throw malformed("the headers of a part are too big");
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            String current = new String(line.toByteArray(), UTF_8);
+            line.reset();
+            if (current.endsWith("\r"))
+                current = current.substring(0, current.length() - 1);
+            if (!current.isEmpty() && (current.charAt(0) == ' ' || current.charAt(0) == '\t') && previous != null) {
+                previous = previous + " " + current.trim(); // folded onto the line before
+                continue;
+            }
+            if (previous != null) {
+                int colon = previous.indexOf(':');
+                if (colon == -1)
+                    throw malformed("a header of a part has no colon");
+                headers.addHeader(previous.substring(0, colon).trim(), previous.substring(colon + 1).trim());
+            }
+            if (current.isEmpty())
+                return headers.build();
+            previous = current;
+        }
+    }
+
+    /**
+     * Read up to {@code length} bytes of the data of the current part, or return -1 if the part is
+     * over.
+     */
+    private int readData(byte[] out, int offset, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            if (pendingStart < pendingEnd) {
+                int n = Math.min(pendingEnd - pendingStart, length - count);
+                System.arraycopy(delimiter, pendingStart, out, offset + count, n);
+                pendingStart += n;
+                count += n;
+                continue;
+            }
+            if (pendingByte != -1) {
+                out[offset + count++] = (byte) pendingByte;
+                pendingByte = -1;
+                continue;
+            }
+            if (atDelimiter)
+                break;
+            if (position == limit && !fill())
+                throw malformed("the body ended in the middle of a part");
+
+            if (matched == 0) {
+                // nothing could be a delimiter yet, so copy everything up to a byte that could start one
+                int start = position;
+                int end = Math.min(limit, position + length - count);
+                byte first = delimiter[0];
+                while (position < end && buffer[position] != first)
+                    position++;
+                System.arraycopy(buffer, start, out, offset + count, position - start);
+                count += position - start;
+                if (position == end)
+                    continue;
+            }
+
+            byte b = buffer[position++];
+            int j = matched;
+            while (j > 0 && b != delimiter[j])
+                j = failure[j - 1];
+            if (b == delimiter[j])
+                j++;
+            // out of what was matched plus this byte, everything but the last j bytes is data
+            pendingStart = 0;
+            if (j == 0) {
+                pendingEnd = matched;
+                pendingByte = b & 0xff;
+            } else
+                pendingEnd = matched + 1 - j;
+            matched = j;
+            if (matched == delimiter.length) {
+                matched = 0;
+                atDelimiter = true;
+            }
+        }
+        if (count == 0 && atDelimiter)
+            return -1;
+        return count;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill())
+            throw malformed("the body ended too soon");
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer);
+        if (read == -1)
+            return false;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static StatusCodeException malformed(String message) {
+        return new StatusCodeException(StatusCode.BAD_REQUEST, new IOException("malformed multipart body: " + message));
+    }
+
+    /**
+     * Reads the data of the current part.
+     */
+    private final class PartInputStream extends InputStream {
+        private final int number = partNumber;
+        private final byte[] single = new byte[1];
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            if (read(single, 0, 1) == -1)
+                return -1;
+            return single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done || number != partNumber)
+                return -1; // a handler held on to the stream after it was done with the part
+            if (len == 0)
+                return 0;
+            int read = readData(b, off, len);
+            if (read == -1)
+                done = true;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The headers of one part of a multipart body. The parameters of the {@code Content-Disposition}
+ * header are parsed, so the name of a form field and the name of an uploaded file are easy to get at.
+ *
+ * @author Theodore Dubois
+ */
+public final class Part {
+    private final Headers headers;
+    private final Map<String, String> disposition;
+
+    /**
+     * Construct a part with the given headers.
+     *
+     * @param headers the headers
+     */
+    public Part(Headers headers) {
+        this.headers = headers;
+        String header = headers.get("Content-Disposition");
+        disposition = header != null ? parseParameters(header) : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Parse the parameters after the first semicolon of a header. Values can be quoted, and quoted
+     * values can have semicolons and backslash escapes in them.
+     */
+    static Map<String, String> parseParameters(String header) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        int i = header.indexOf(';');
+        while (i != -1 && i < header.length()) {
+            int start = i + 1;
+            int equals = header.indexOf('=', start);
+            int semicolon = header.indexOf(';', start);
+            if (equals == -1)
+                break;
+            if (semicolon != -1 && semicolon < equals) {
+                i = semicolon; // a parameter with no value
+                continue;
+            }
+            String key = header.substring(start, equals).trim().toLowerCase();
+            StringBuilder value = new StringBuilder();
+            i = equals + 1;
+            while (i < header.length() && header.charAt(i) == ' ')
+                i++;
+            if (i < header.length() && header.charAt(i) == '"') {
+                for (i++; i < header.length() && header.charAt(i) != '"'; i++) {
+                    if (header.charAt(i) == '\\' && i + 1 < header.length())
+                        i++;
+                    value.append(header.charAt(i));
+                }
+                i = header.indexOf(';', i);
+            } else {
+                int end = header.indexOf(';', i);
+                value.append(header, i, end == -1 ? header.length() : end);
+                i = end;
+            }
+            parameters.put(key, value.toString().trim());
+        }
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Return the name of the form field the part is for, or {@code null} if there is none.
+     *
+     * @return the name of the form field, or {@code null}
+     */
+    public String getName() {
+        return disposition.get("name");
+    }
+
+    /**
+     * Return the name of the file the part is, or {@code null} if it isn't a file.
+     *
+     * @return the name of the file, or {@code null}
+     */
+    public String getFileName() {
+        return disposition.get("filename");
+    }
+
+    /**
+     * Return the MIME type of the part. If there is no {@code Content-Type} header, it is
+     * {@code text/plain}.
+     *
+     * @return the MIME type of the part
+     */
+    public String getContentType() {
+        String contentType = headers.get(Headers.CONTENT_TYPE);
+        return contentType != null ? contentType : "text/plain";
+    }
+
+    /**
+     * Return the headers.
+     *
+     * @return the headers
+     */
+    public Headers getHeaders() {
+        return headers;
+    }
+}
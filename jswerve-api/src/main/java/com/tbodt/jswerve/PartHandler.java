@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Handles the parts of a multipart body as they arrive, for {@link Content#parseMultipart(PartHandler)}.
+ *
+ * @author Theodore Dubois
+ */
+public interface PartHandler {
+
+    /**
+     * Handle a part. The data is streamed straight from the client, and the stream ends where the
+     * part does. Whatever isn't read of it is skipped after this returns.
+     *
+     * @param part the headers of the part
+     * @param data the data of the part
+     * @throws IOException if the data can't be read, or the handler can't put it anywhere
+     */
+    void handlePart(Part part, InputStream data) throws IOException;
+}
@@ -34,6 +34,8 @@ public final class Request {
     private Map<String, String> parameters;
     private Map<String, String> queryParameters;
     private Map<String, String> postParameters;
+    private Map<String, List<UploadedFile>> uploadedFiles;
+    private StatusCodeException formFailure;
     private Map<String, String> pathParameters;
 
     /**
@@ -83,16 +85,55 @@ public final class Request {
     }
 
     /**
-     * Return the form parameters of the request.
+     * Return the form parameters of the request. For a {@code multipart/form-data} form, these are
+     * the fields that aren't files.
      *
      * @return the form parameters of the request
+     * @throws StatusCodeException if the form can't be parsed, every time this is called
      */
     public Map<String, String> getPostParameters() {
         if (postParameters == null)
-            postParameters = body.parseFormParameters();
+            parseForm();
         return postParameters;
     }
 
+    /**
+     * Return the files uploaded with a {@code multipart/form-data} form, by the name of the field. A
+     * field can have more than one file, such as an {@code <input type="file" multiple>}. They are
+     * saved to temporary files as they arrive, and deleted when the request is done.
+     *
+     * @return the files uploaded with the request
+     * @throws StatusCodeException if the form can't be parsed, every time this is called
+     */
+    public Map<String, List<UploadedFile>> getUploadedFiles() {
+        if (uploadedFiles == null)
+            parseForm();
+        return uploadedFiles;
+    }
+
+    private void parseForm() {
+        // the body can't be read again, so a failure has to be remembered
+        if (formFailure != null)
+            throw formFailure;
+        try {
+            if ("multipart/form-data".equals(body.getMimeType())) {
+                Map<String, String> fields = new HashMap<String, String>();
+                Map<String, List<UploadedFile>> files = new HashMap<String, List<UploadedFile>>();
+                MultipartFormParser.parse(body, fields, files);
+                for (Map.Entry<String, List<UploadedFile>> entry : files.entrySet())
+                    entry.setValue(Collections.unmodifiableList(entry.getValue()));
+                postParameters = Collections.unmodifiableMap(fields);
+                uploadedFiles = Collections.unmodifiableMap(files);
+            } else {
+                postParameters = body.parseFormParameters();
+                uploadedFiles = Collections.emptyMap();
+            }
+        } catch (StatusCodeException ex) {
+            formFailure = ex;
+            throw ex;
+        }
+    }
+
     /**
      * Return the path parameters of the request.
      *
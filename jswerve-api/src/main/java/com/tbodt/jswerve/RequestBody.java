@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The body of a request, which isn't read until something asks for it. It can be streamed once
+ * straight from the client, or buffered so it can be read any number of times. When it is buffered,
+ * the first {@code memoryThreshold} bytes are kept in memory, and if there are more than that, all
+ * of it goes into a temporary file instead. So a big upload costs disk space, not heap.
+ *
+ * If the body is bigger than the maximum size, reading it throws a {@link StatusCodeException} with
+ * {@link StatusCode#REQUEST_ENTITY_TOO_LARGE}. If the client said how long the body is, that happens
+ * before any of it is read.
+ *
+ * The temporary file is deleted when the body is closed, which whoever made the body should do once
+ * the request is done. So are the files that uploads are saved to.
+ *
+ * @author Theodore Dubois
+ */
+public final class RequestBody implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final long declaredLength;
+    private final long maxSize;
+    private final int memoryThreshold;
+    private final File tempDirectory;
+
+    private boolean streamed;
+    private boolean buffered;
+    private boolean closed;
+    private StatusCodeException failure;
+    private byte[] memory;
+    private File file;
+    private long length;
+    private final List<File> tempFiles = new ArrayList<File>();
+
+    /**
+     * Construct a body that is read from the given stream.
+     *
+     * @param in the stream the body comes from
+     * @param declaredLength the length the client said the body has, or -1 if it didn't say
+     * @param maxSize the maximum size of the body, or -1 if there is no maximum
+     * @param memoryThreshold the most bytes that are buffered in memory
+     * @param tempDirectory where to put the temporary file, or {@code null} for the default
+     */
+    public RequestBody(InputStream in, long declaredLength, long maxSize, int memoryThreshold, File tempDirectory) {
+        if (memoryThreshold < 0)
+            throw new IllegalArgumentException("memory threshold is negative");
+        this.in = in;
+        this.declaredLength = declaredLength;
+        this.maxSize = maxSize;
+        this.memoryThreshold = memoryThreshold;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Return whether the client said the body is bigger than the maximum size. If so, reading the
+     * body will only throw an exception.
+     *
+     * @return whether the client said the body is bigger than the maximum size
+     */
+    public boolean isDeclaredTooLarge() {
+        return maxSize != -1 && declaredLength > maxSize;
+    }
+
+    /**
+     * Return the length of the body, or -1 if it hasn't been buffered and the client didn't say.
+     *
+     * @return the length of the body, or -1
+     */
+    public synchronized long getLength() {
+        if (buffered)
+            return length;
+        return declaredLength;
+    }
+
+    /**
+     * Return a stream that reads the body. If the body hasn't been buffered, the stream reads it
+     * straight from the client, and it can't be read again afterwards.
+     *
+     * @return a stream that reads the body
+     */
+    synchronized InputStream openStream() {
+        checkOpen();
+        if (buffered) {
+            if (memory != null)
+                return new ByteArrayInputStream(memory, 0, (int) length);
+            try {
+                return new FileInputStream(file);
+            } catch (FileNotFoundException ex) {
+                throw new WTFException("someone deleted the temporary file of an open body", ex);
+            }
+        }
+        if (failure != null)
+            throw failure;
+        if (streamed)
+            throw new IllegalStateException("the body was already streamed");
+        InputStream body = new LimitedInputStream();
+        streamed = true;
+        return body;
+    }
+
+    /**
+     * Write the body to the output stream. If the body hasn't been buffered, it goes straight from
+     * the client to the output stream, and it can't be read again afterwards.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        InputStream body = openStream();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = body.read(buffer)) != -1)
+                out.write(buffer, 0, count);
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Return the body in an array. If the body is in memory, the array isn't a copy, so don't
+     * modify it.
+     */
+    synchronized byte[] bytes() {
+        buffer();
+        if (memory != null)
+            return memory;
+        if (length > Integer.MAX_VALUE)
+            throw new StatusCodeException(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+        byte[] bytes = new byte[(int) length];
+        try {
+            InputStream body = openStream();
+            try {
+                int read = 0;
+                while (read < bytes.length) {
+                    int count = body.read(bytes, read, bytes.length - read);
+                    if (count == -1)
+                        throw new IOException("the temporary file got shorter");
+                    read += count;
+                }
+            } finally {
+                body.close();
+            }
+        } catch (IOException ex) {
+            throw new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, ex);
+        }
+        return bytes;
+    }
+
+    /**
+     * Return a read-only view of the body. If the body is in a temporary file, the file is mapped
+     * into memory.
+     */
+    synchronized ByteBuffer asByteBuffer() {
+        buffer();
+        if (memory != null)
+            return ByteBuffer.wrap(memory, 0, (int) length).asReadOnlyBuffer();
+        try {
+            RandomAccessFile mapped = new RandomAccessFile(file, "r");
+            try {
+                return mapped.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                mapped.close();
+            }
+        } catch (IOException ex) {
+            throw new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, ex);
+        }
+    }
+
+    /**
+     * Read the whole body, into memory or into a temporary file.
+     */
+    private void buffer() {
+        checkOpen();
+        if (buffered)
+            return;
+        if (failure != null)
+            throw failure; // it failed the first time, and it's not going to get any better
+        if (streamed)
+            throw new IllegalStateException("the body was already streamed");
+        InputStream body = new LimitedInputStream();
+        streamed = true;
+        OutputStream out = null;
+        try {
+            int size = (int) Math.min(declaredLength != -1 ? declaredLength : BUFFER_SIZE, memoryThreshold);
+            byte[] bytes = new byte[size];
+            int count = 0;
+            int extra = -1;
+            while (true) {
+                if (count == bytes.length) {
+                    // if the client told the truth about the length, this finds the end without growing the array
+                    int next = body.read();
+                    if (next == -1)
+                        break;
+                    if (count == memoryThreshold) {
+                        extra = next;
+                        break;
+                    }
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(Math.max(bytes.length * 2L, 16), memoryThreshold));
+                    bytes[count++] = (byte) next;
+                    continue;
+                }
+                int read = body.read(bytes, count, bytes.length - count);
+                if (read == -1)
+                    break;
+                count += read;
+            }
+
+            if (extra == -1) {
+                memory = count == bytes.length ? bytes : Arrays.copyOf(bytes, count);
+                length = count;
+            } else {
+                // it doesn't fit in memory, so all of it goes in the file
+                file = File.createTempFile("jswerve-body", ".tmp", tempDirectory);
+                out = new FileOutputStream(file);
+                out.write(bytes, 0, count);
+                out.write(extra);
+                long total = count + 1;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+                out.close();
+                out = null;
+                length = total;
+            }
+            buffered = true;
+        } catch (IOException ex) {
+            failure = new StatusCodeException(StatusCode.BAD_REQUEST, ex);
+            throw failure;
+        } catch (StatusCodeException ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    // it's getting deleted anyway
+                }
+            if (!buffered && file != null) {
+                if (!file.delete())
+                    file.deleteOnExit();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Create a temporary file that's deleted when the body is closed.
+     */
+    synchronized File createTempFile() throws IOException {
+        checkOpen();
+        File tempFile = File.createTempFile("jswerve-upload", ".tmp", tempDirectory);
+        tempFiles.add(tempFile);
+        return tempFile;
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("the body was closed");
+    }
+
+    /**
+     * Delete the temporary file, if there is one. The body can't be read after it is closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        memory = null;
+        if (file != null)
+            tempFiles.add(file);
+        file = null;
+        for (File tempFile : tempFiles)
+            if (!tempFile.delete())
+                tempFile.deleteOnExit();
+        tempFiles.clear();
+    }
+
+    /**
+     * Reads the body from the client, and throws an exception as soon as it gets too big.
+     */
+    private final class LimitedInputStream extends InputStream {
+        private long count;
+
+        LimitedInputStream() {
+            if (isDeclaredTooLarge())
+                throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = in.read();
+            if (read != -1)
+                count(1);
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0)
+                count(read);
+            return read;
+        }
+
+        private void count(int read) {
+            count += read;
+            if (maxSize != -1 && count > maxSize)
+                throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+    }
+}
@@ -46,11 +46,9 @@ public class Response {
      */
     public Response(StatusCode status, Headers headers, Content body) {
         this.status = status;
-        Headers.Builder builder = headers.getBuilder();
-        builder.setHeaders(headers);
         if (body.getMimeType() != null)
-            builder.header("Content-Type", body.getMimeType());
-        this.headers = builder.build();
+            headers = headers.getBuilder().header(Headers.CONTENT_TYPE, body.getMimeType()).build();
+        this.headers = headers;
         this.body = body;
     }
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+/**
+ * Receives the outcome of a request, which might not be known until after the action returns if the
+ * controller went {@linkplain Controller#async() asynchronous}. Exactly one of the methods is called,
+ * exactly once, possibly from a different thread than the one that serviced the request.
+ *
+ * @author Theodore Dubois
+ */
+public interface ResponseListener {
+
+    /**
+     * Called when the response has been rendered.
+     *
+     * @param response the response
+     */
+    void responseRendered(Response response);
+
+    /**
+     * Called when servicing the request failed.
+     *
+     * @param failure the status code to respond with and why
+     */
+    void requestFailed(StatusCodeException failure);
+}
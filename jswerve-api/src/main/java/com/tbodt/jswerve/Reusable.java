@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a controller whose instances can be used for more than one request. When the website is
+ * set to recycle controllers, an instance of a reusable controller is reset with
+ * {@link Controller#recycle()} after it services a request, and kept as a spare for a later request
+ * on any thread. A couple of spares per processor are kept for each controller, and the rest are
+ * left for the garbage collector. A reusable controller must clear any state of its own in
+ * {@link Controller#reset()}.
+ *
+ * @author Theodore Dubois
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Reusable {
+}
@@ -16,9 +16,8 @@
  */
 package com.tbodt.jswerve;
 
+import com.tbodt.jswerve.util.PathUtils;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A route.
@@ -30,12 +29,18 @@ public final class Route {
     private final EnumSet<HttpMethod> methods;
     private final Class<? extends Controller> controller;
     private final String action;
+    private final boolean hasParameters;
 
     Route(String[] pattern, EnumSet<HttpMethod> methods, Class<? extends Controller> controller, String action) {
         this.pattern = pattern;
         this.methods = methods;
         this.controller = controller;
         this.action = action;
+        boolean parameters = false;
+        for (String component : pattern)
+            if (component.startsWith(":") && component.length() > 1)
+                parameters = true;
+        this.hasParameters = parameters;
     }
 
     /**
@@ -81,23 +86,69 @@ public final class Route {
      * @return whether the path matches this route
      */
     public boolean matchesPath(String path) {
-        int i, j;
-        Map<String, String> parameters = new HashMap<String, String>();
-        String[] pathComponents = Route.pathComponents(path);
-        for (i = 0, j = 0; i < pattern.length && j < pathComponents.length; i++, j++) {
-            String patternComponent = pattern[i];
-            String pathComponent = pathComponents[j];
-            if (patternComponent.startsWith(":")) {
-                if (!patternComponent.equals(":"))
-                    parameters.put(patternComponent.substring(1), pathComponent);
-            } else if (!patternComponent.equals(pathComponent))
+        int start = PathUtils.componentStart(path, 0);
+        for (String patternComponent : pattern) {
+            if (start == path.length())
+                return false;
+            int end = PathUtils.componentEnd(path, start);
+            if (!patternComponent.startsWith(":")
+                    && !PathUtils.componentEquals(path, start, end, patternComponent))
                 return false;
+            start = PathUtils.componentStart(path, end);
         }
-        return i == pattern.length && j == pathComponents.length;
+        return start == path.length();
     }
 
-    private static final Pattern PATH_COMPONENTS = Pattern.compile("[^/]+");
-    private static final String[] EMPTY_STRING_ARRAY = new String[0];
+    /**
+     * Return the path parameters that this route extracts from a path. The path should match this
+     * route.
+     *
+     * @param path the path
+     * @return the path parameters
+     */
+    public Map<String, String> extractParameters(String path) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        int start = PathUtils.componentStart(path, 0);
+        for (String patternComponent : pattern) {
+            int end = PathUtils.componentEnd(path, start);
+            if (patternComponent.startsWith(":") && patternComponent.length() > 1)
+                parameters.put(patternComponent.substring(1), path.substring(start, end));
+            start = PathUtils.componentStart(path, end);
+        }
+        return parameters;
+    }
+
+    /**
+     * Whether this route has any named parameters in its pattern.
+     *
+     * @return whether this route has any named parameters
+     */
+    public boolean hasParameters() {
+        return hasParameters;
+    }
+
+    /**
+     * Return a description of the route, like {@code GET,HEAD /users/:id com.example.Users#show}:
+     * the methods, the pattern, and the binary name of the controller class and the action. Routes
+     * that are different in any way have different descriptions.
+     *
+     * @return a description of the route
+     */
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        for (HttpMethod method : methods) {
+            if (description.length() != 0)
+                description.append(',');
+            description.append(method);
+        }
+        description.append(' ');
+        if (pattern.length == 0)
+            description.append('/');
+        for (String component : pattern)
+            description.append('/').append(component);
+        return description.append(' ').append(controller.getName()).append('#').append(action).toString();
+    }
 
     /**
      * Return the components of a path.
@@ -106,11 +157,13 @@ public final class Route {
      * @return the components of that path
      */
     public static String[] pathComponents(String path) {
-        // This is, unfortunately, more complicated than it needs to be. Which is why it's a static method.
-        List<String> components = new ArrayList<String>();
-        Matcher matcher = PATH_COMPONENTS.matcher(path);
-        while (matcher.find())
-            components.add(matcher.group());
-        return components.toArray(EMPTY_STRING_ARRAY);
+        String[] components = new String[PathUtils.countComponents(path)];
+        int start = PathUtils.componentStart(path, 0);
+        for (int i = 0; i < components.length; i++) {
+            int end = PathUtils.componentEnd(path, start);
+            components[i] = path.substring(start, end);
+            start = PathUtils.componentStart(path, end);
+        }
+        return components;
     }
 }
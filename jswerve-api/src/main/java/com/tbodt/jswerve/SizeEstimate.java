@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+/**
+ * A running estimate of how big something will be, used to size buffers ahead of time. The
+ * estimate jumps up to any size that is recorded above it, and drifts down slowly towards sizes
+ * below it, so buffers sized from it rarely have to grow. Generated templates keep one of these in a
+ * static field.
+ *
+ * Updates aren't synchronized. If two threads record a size at once, one of the sizes is lost,
+ * which doesn't matter for an estimate.
+ *
+ * @author Theodore Dubois
+ */
+public final class SizeEstimate {
+    private volatile int estimate;
+
+    /**
+     * Construct a {@code SizeEstimate} that starts out at the given size.
+     *
+     * @param initial the initial estimate
+     */
+    public SizeEstimate(int initial) {
+        this.estimate = initial;
+    }
+
+    /**
+     * Return the current estimate.
+     *
+     * @return the current estimate
+     */
+    public int get() {
+        return estimate;
+    }
+
+    /**
+     * Take an actual size into account.
+     *
+     * @param size the actual size
+     */
+    public void record(int size) {
+        int current = estimate;
+        if (size > current)
+            estimate = size;
+        else if (size < current)
+            estimate = current - (current - size) / 16;
+    }
+}
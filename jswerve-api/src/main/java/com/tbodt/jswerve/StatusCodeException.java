@@ -15,14 +15,38 @@
  */
 package com.tbodt.jswerve;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 /**
  * An exception that requests a specific status code be sent in the response.
  *
+ * Status code exceptions are thrown on purpose to pick a response, not because of a bug, so they
+ * don't fill in a stack trace. If one wraps another exception, the cause still has its stack trace.
+ *
  * @author Theodore Dubois
  */
 public class StatusCodeException extends RuntimeException {
+    private static final Map<StatusCode, StatusCodeException> cached = new EnumMap<StatusCode, StatusCodeException>(StatusCode.class);
+
+    static {
+        for (StatusCode code : StatusCode.values())
+            cached.put(code, new StatusCodeException(code, null));
+    }
+
     private final StatusCode code;
 
+    /**
+     * Return a shared {@code StatusCodeException} with the given status code and no cause. Since
+     * there is no stack trace to fill in, throwing the shared instance costs nothing at all.
+     *
+     * @param code the status code
+     * @return a shared {@code StatusCodeException} with the given status code
+     */
+    public static StatusCodeException of(StatusCode code) {
+        return cached.get(code);
+    }
+
     /**
      * Creates a {@code StatusCodeException} with the given status code.
      *
@@ -44,6 +68,16 @@ public class StatusCodeException extends RuntimeException {
         this.code = code;
     }
 
+    /**
+     * Does nothing, because status code exceptions don't have stack traces.
+     *
+     * @return this exception
+     */
+    @Override
+    public Throwable fillInStackTrace() {
+        return this;
+    }
+
     /**
      * Return the status code associated with this exception.
      * @return the status code associated with this exception
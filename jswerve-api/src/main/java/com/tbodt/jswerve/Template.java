@@ -17,7 +17,8 @@
 package com.tbodt.jswerve;
 
 /**
- * A template.
+ * A template. Templates render themselves as a string; extend {@link AbstractTemplate} to stream
+ * to a {@link TemplateOutput} instead, and get rendering as a string for free.
  *
  * @author Theodore Dubois
  */
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+/**
+ * Finds the templates a controller can render by name, so that a template which was changed and
+ * loaded again while the website is running is the one that gets rendered.
+ *
+ * @author Theodore Dubois
+ */
+public interface TemplateLookup {
+
+    /**
+     * Return a new instance of the template with the given name, constructed with the arguments.
+     *
+     * @param name the name of the template, which is the name of its file without {@code .jtl}
+     * @param args the arguments, which are the template's parameters
+     * @return a new instance of the template
+     * @throws IllegalArgumentException if there is no such template, or it doesn't take those
+     * arguments
+     */
+    Template newTemplate(String name, Object... args);
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Where a template writes its output. Characters are encoded as UTF-8 straight into a buffer, and
+ * the buffer is written to an output stream whenever it fills up, so a page never has to be in
+ * memory all at once. A {@code TemplateOutput} can also collect the output in memory, in which case
+ * the buffer grows instead.
+ *
+ * Text can be appended as it is, or escaped for HTML. Escaping checks each character against a
+ * lookup table while copying it into the buffer, so text that needs no escaping costs about as
+ * much as appending it, and nothing is allocated either way.
+ *
+ * @author Theodore Dubois
+ */
+public final class TemplateOutput implements Appendable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // what each ASCII character is escaped as in HTML, or null if it doesn't need escaping
+    private static final byte[][] HTML_ESCAPES = new byte[128][];
+
+    static {
+        HTML_ESCAPES['&'] = ascii("&amp;");
+        HTML_ESCAPES['<'] = ascii("&lt;");
+        HTML_ESCAPES['>'] = ascii("&gt;");
+        HTML_ESCAPES['"'] = ascii("&quot;");
+        HTML_ESCAPES['\''] = ascii("&#39;");
+    }
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count;
+    private long drained;
+    private char highSurrogate;
+    private FragmentCache fragmentCache;
+
+    /**
+     * Construct a {@code TemplateOutput} that writes to the output stream with an 8K buffer.
+     *
+     * @param out the output stream
+     */
+    public TemplateOutput(OutputStream out) {
+        this(out, 8192);
+    }
+
+    /**
+     * Construct a {@code TemplateOutput} that writes to the output stream with a buffer of the given
+     * size.
+     *
+     * @param out the output stream
+     * @param bufferSize the size of the buffer
+     * @throws IllegalArgumentException if the buffer is smaller than 4 bytes, which is the longest a
+     * character can be in UTF-8
+     */
+    public TemplateOutput(OutputStream out, int bufferSize) {
+        if (bufferSize < 4)
+            throw new IllegalArgumentException("buffer must be at least 4 bytes");
+        if (out == null)
+            throw new NullPointerException("out");
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Construct a {@code TemplateOutput} that collects the output in memory, starting with room for
+     * the given number of bytes. Get the output with {@link #toString()}.
+     *
+     * @param initialSize the number of bytes to make room for
+     */
+    public TemplateOutput(int initialSize) {
+        this.out = null;
+        this.buffer = new byte[Math.max(initialSize, 4)];
+    }
+
+    @Override
+    public TemplateOutput append(CharSequence csq) throws IOException {
+        if (csq == null)
+            csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public TemplateOutput append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null)
+            csq = "null";
+        int i = start;
+        while (i < end) {
+            // ASCII goes straight into the buffer, as much of it as fits
+            if (highSurrogate == 0) {
+                int limit = Math.min(end, i + buffer.length - count);
+                for (char c; i < limit && (c = csq.charAt(i)) < 0x80; i++)
+                    buffer[count++] = (byte) c;
+                if (i == end)
+                    break;
+            }
+            encode(csq.charAt(i++));
+        }
+        return this;
+    }
+
+    @Override
+    public TemplateOutput append(char c) throws IOException {
+        encode(c);
+        return this;
+    }
+
+    /**
+     * Append the string representation of an object, the way {@link String#valueOf(Object)} makes
+     * it.
+     *
+     * @param object the object
+     * @return this
+     * @throws IOException if the output stream throws one
+     */
+    public TemplateOutput print(Object object) throws IOException {
+        return append(String.valueOf(object));
+    }
+
+    /**
+     * Append text escaped for HTML, so that it can go in an element or a quoted attribute value.
+     * The characters {@code & < > " '} are replaced with character references.
+     *
+     * @param csq the text, or {@code null} to append {@code "null"}
+     * @return this
+     * @throws IOException if the output stream throws one
+     */
+    public TemplateOutput appendEscaped(CharSequence csq) throws IOException {
+        if (csq == null)
+            csq = "null";
+        int length = csq.length();
+        int i = 0;
+        while (i < length) {
+            // ASCII that doesn't need escaping goes straight into the buffer, like in append
+            if (highSurrogate == 0) {
+                int limit = Math.min(length, i + buffer.length - count);
+                for (char c; i < limit && (c = csq.charAt(i)) < 0x80 && HTML_ESCAPES[c] == null; i++)
+                    buffer[count++] = (byte) c;
+                if (i == length)
+                    break;
+            }
+            char c = csq.charAt(i++);
+            byte[] escape = c < HTML_ESCAPES.length ? HTML_ESCAPES[c] : null;
+            if (escape == null)
+                encode(c);
+            else {
+                if (highSurrogate != 0) {
+                    highSurrogate = 0;
+                    encode('?'); // a lonely high surrogate, like in encode
+                }
+                write(escape);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append the string representation of an object escaped for HTML, like
+     * {@link #appendEscaped(CharSequence)}.
+     *
+     * @param object the object
+     * @return this
+     * @throws IOException if the output stream throws one
+     */
+    public TemplateOutput printEscaped(Object object) throws IOException {
+        return appendEscaped(String.valueOf(object));
+    }
+
+    /**
+     * Append bytes that are already encoded as UTF-8.
+     *
+     * @param bytes the bytes
+     * @return this
+     * @throws IOException if the output stream throws one
+     */
+    public TemplateOutput write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            if (out == null)
+                grow(bytes.length);
+            else {
+                drain();
+                if (bytes.length > buffer.length) {
+                    // no use copying it into the buffer
+                    out.write(bytes);
+                    drained += bytes.length;
+                    return this;
+                }
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+        return this;
+    }
+
+    /**
+     * Write out everything in the buffer and flush the output stream.
+     *
+     * @throws IOException if the output stream throws one
+     */
+    public void flush() throws IOException {
+        if (out == null)
+            return;
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Return the cache that fragments rendered to this output are cached in, or {@code null} if
+     * they aren't cached.
+     *
+     * @return the fragment cache, or {@code null}
+     */
+    public FragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * Set the cache that fragments rendered to this output are cached in. If it is {@code null},
+     * which is the default, fragments are rendered every time.
+     *
+     * @param fragmentCache the fragment cache, or {@code null}
+     */
+    public void setFragmentCache(FragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * Return the number of bytes written so far.
+     *
+     * @return the number of bytes written so far
+     */
+    public long size() {
+        return drained + count;
+    }
+
+    /**
+     * Return the output that has been collected in memory, as UTF-8.
+     *
+     * @return the output
+     * @throws IllegalStateException if the output is written to an output stream instead
+     */
+    public byte[] toByteArray() {
+        if (out != null)
+            throw new IllegalStateException("output isn't collected in memory");
+        byte[] bytes = new byte[count];
+        System.arraycopy(buffer, 0, bytes, 0, count);
+        return bytes;
+    }
+
+    /**
+     * If the output is being collected in memory, return it decoded as a string. Otherwise, return
+     * the usual {@code toString} of an object.
+     *
+     * @return the output, or a description of the {@code TemplateOutput}
+     */
+    @Override
+    public String toString() {
+        if (out == null)
+            return new String(buffer, 0, count, UTF8);
+        return super.toString();
+    }
+
+    private void encode(char c) throws IOException {
+        if (buffer.length - count < 4)
+            drain();
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+                return;
+            }
+            buffer[count++] = '?'; // a lonely high surrogate, like String.getBytes does
+            if (buffer.length - count < 3)
+                drain();
+        }
+        if (c < 0x80)
+            buffer[count++] = (byte) c;
+        else if (c < 0x800) {
+            buffer[count++] = (byte) (0xc0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c))
+            highSurrogate = c;
+        else if (Character.isLowSurrogate(c))
+            buffer[count++] = '?';
+        else {
+            buffer[count++] = (byte) (0xe0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    /**
+     * Make room in the buffer, by writing it out or, if the output is collected in memory, by
+     * growing it.
+     */
+    private void drain() throws IOException {
+        if (out == null)
+            grow(4);
+        else if (count > 0) {
+            out.write(buffer, 0, count);
+            drained += count;
+            count = 0;
+        }
+    }
+
+    private static byte[] ascii(String string) {
+        byte[] bytes = new byte[string.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) string.charAt(i);
+        return bytes;
+    }
+
+    private void grow(int needed) {
+        byte[] bigger = new byte[Math.max(buffer.length * 2, count + needed)];
+        System.arraycopy(buffer, 0, bigger, 0, count);
+        buffer = bigger;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.File;
+
+/**
+ * A file uploaded with a {@code multipart/form-data} form, which was saved to a temporary file as it
+ * arrived. The temporary file is deleted when the request is done, so move or copy it somewhere if it
+ * needs to stick around.
+ *
+ * @author Theodore Dubois
+ */
+public final class UploadedFile {
+    private final Part part;
+    private final File file;
+    private final long length;
+
+    UploadedFile(Part part, File file, long length) {
+        this.part = part;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * Return the name the file had on the client.
+     *
+     * @return the name the file had on the client
+     */
+    public String getFileName() {
+        return part.getFileName();
+    }
+
+    /**
+     * Return the MIME type the client said the file has.
+     *
+     * @return the MIME type of the file
+     */
+    public String getContentType() {
+        return part.getContentType();
+    }
+
+    /**
+     * Return the temporary file.
+     *
+     * @return the temporary file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Return the length of the file in bytes.
+     *
+     * @return the length of the file
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Return the part the file came from.
+     *
+     * @return the part the file came from
+     */
+    public Part getPart() {
+        return part;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.util;
+
+/**
+ * Utilities for walking the components of a path without splitting it up.
+ *
+ * A component is a run of characters other than {@code /}, so empty components are skipped. The
+ * methods work on index ranges of the path string, so going through a path like this allocates
+ * nothing:
+ * <pre>{@code
+ * int start = PathUtils.componentStart(path, 0);
+ * while (start < path.length()) {
+ *     int end = PathUtils.componentEnd(path, start);
+ *     // the component is path[start, end)
+ *     start = PathUtils.componentStart(path, end);
+ * }
+ * }</pre>
+ *
+ * @author Theodore Dubois
+ */
+public final class PathUtils {
+    /**
+     * Return the index where the first component at or after {@code from} begins, or the length of
+     * the path if there are no more components.
+     *
+     * @param path the path
+     * @param from where to start looking
+     * @return the index where the next component begins, or the length of the path
+     */
+    public static int componentStart(String path, int from) {
+        int length = path.length();
+        while (from < length && path.charAt(from) == '/')
+            from++;
+        return from;
+    }
+
+    /**
+     * Return the index just after the end of the component that begins at {@code start}.
+     *
+     * @param path the path
+     * @param start where the component begins
+     * @return the index just after the end of the component
+     */
+    public static int componentEnd(String path, int start) {
+        int length = path.length();
+        while (start < length && path.charAt(start) != '/')
+            start++;
+        return start;
+    }
+
+    /**
+     * Whether the component of the path in {@code [start, end)} is equal to {@code component}.
+     *
+     * @param path the path
+     * @param start where the component begins
+     * @param end where the component ends
+     * @param component the string to compare with
+     * @return whether the component is equal to {@code component}
+     */
+    public static boolean componentEquals(String path, int start, int end, String component) {
+        return component.length() == end - start && path.regionMatches(start, component, 0, end - start);
+    }
+
+    /**
+     * Return the hash code of the component of the path in {@code [start, end)}. This is the same as
+     * {@code path.substring(start, end).hashCode()}, but it doesn't create the substring.
+     *
+     * @param path the path
+     * @param start where the component begins
+     * @param end where the component ends
+     * @return the hash code of the component
+     */
+    public static int componentHash(String path, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + path.charAt(i);
+        return hash;
+    }
+
+    /**
+     * Return the number of components in the path.
+     *
+     * @param path the path
+     * @return the number of components in the path
+     */
+    public static int countComponents(String path) {
+        int count = 0;
+        int start = componentStart(path, 0);
+        while (start < path.length()) {
+            count++;
+            start = componentStart(path, componentEnd(path, start));
+        }
+        return count;
+    }
+
+    private PathUtils() {
+    }
+}
@@ -16,6 +16,9 @@
  */
 package com.tbodt.jswerve;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -30,4 +33,68 @@ public class ContentTest {
         assertEquals(0, empty.getData().length);
         assertNull(empty.getMimeType());
     }
+
+    @Test
+    public void testZeroCopyAccess() throws IOException {
+        byte[] data = "hello".getBytes("US-ASCII");
+        Content content = new Content(data, "text/plain");
+        assertEquals(5, content.getLength());
+
+        ByteBuffer buffer = content.asByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(5, buffer.remaining());
+        assertEquals('h', buffer.get(0));
+        try {
+            buffer.put(0, (byte) 'j');
+            fail("the buffer can be written to");
+        } catch (ReadOnlyBufferException ex) {
+        }
+        data[0] = 'j';
+        assertEquals('j', content.asByteBuffer().get(0)); // it's a view, not a copy
+
+        InputStream in = content.openStream();
+        assertEquals('j', in.read());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testProducedAccess() throws IOException {
+        Content content = new Content(new ContentProducer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write("produced".getBytes("US-ASCII"));
+            }
+        }, "text/plain");
+        assertEquals(-1, content.getLength());
+        assertEquals(8, content.asByteBuffer().remaining());
+        assertEquals('p', content.openStream().read());
+    }
+
+    @Test
+    public void testProducedOnce() throws IOException {
+        final int[] runs = new int[1];
+        Content content = new Content(new ContentProducer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                runs[0]++;
+                out.write("produced".getBytes("US-ASCII"));
+            }
+        }, "text/plain");
+        assertArrayEquals("produced".getBytes("US-ASCII"), content.getData());
+        assertArrayEquals("produced".getBytes("US-ASCII"), content.getData());
+        assertEquals(8, content.getLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertEquals("produced", out.toString("US-ASCII"));
+        assertEquals(1, runs[0]);
+    }
+
+    @Test
+    public void testFormParameters() throws IOException {
+        Content content = new Content("a=1&b=two+words".getBytes("US-ASCII"), "application/x-www-form-urlencoded");
+        assertEquals("1", content.parseFormParameters().get("a"));
+        assertEquals("two words", content.parseFormParameters().get("b"));
+    }
 }
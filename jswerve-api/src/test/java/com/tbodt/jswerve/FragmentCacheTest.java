@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class FragmentCacheTest {
+    @Test
+    public void testCache() {
+        FragmentCache cache = new FragmentCache(1000);
+        assertNull(cache.get("page", "nav"));
+        cache.put("page", "nav", new byte[10], 0);
+        cache.put("page", "nav", new byte[20], 0);
+        assertEquals(20, cache.get("page", "nav").length);
+        assertEquals(size("page", "nav", 20), cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // every template has keys of its own
+        assertNull(cache.get("other", "nav"));
+
+        // too big to ever fit
+        cache.put("page", "huge", new byte[1000], 0);
+        assertNull(cache.get("page", "huge"));
+        assertEquals(size("page", "nav", 20), cache.getSize());
+    }
+
+    @Test
+    public void testOverhead() {
+        // empty fragments still take up room
+        FragmentCache cache = new FragmentCache(10 * size("page", "fragment0", 0));
+        for (int i = 0; i < 100; i++)
+            cache.put("page", "fragment" + i, new byte[0], 0);
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertNull(cache.get("page", "fragment0"));
+        assertNotNull(cache.get("page", "fragment99"));
+    }
+
+    @Test
+    public void testEviction() {
+        long each = size("page", "fragment0", 20);
+        FragmentCache cache = new FragmentCache(5 * each);
+        for (int i = 0; i < 5; i++)
+            cache.put("page", "fragment" + i, new byte[20], 0);
+        cache.get("page", "fragment0");
+        cache.put("page", "fragment5", new byte[20 + (int) each], 0);
+        // fragment0 was used, so fragment1 and fragment2 go
+        assertNotNull(cache.get("page", "fragment0"));
+        assertNull(cache.get("page", "fragment1"));
+        assertNull(cache.get("page", "fragment2"));
+        assertNotNull(cache.get("page", "fragment5"));
+        assertEquals(5 * each, cache.getSize());
+
+        cache.setMaxSize(each);
+        assertTrue(cache.getSize() <= each);
+    }
+
+    @Test
+    public void testInvalidate() {
+        FragmentCache cache = new FragmentCache(10000);
+        cache.put("page", "user:1:nav", new byte[1], 0);
+        cache.put("other", "user:1:sidebar", new byte[1], 0);
+        cache.put("page", "user:10:nav", new byte[1], 0);
+        assertEquals(2, cache.invalidate("user:1:"));
+        assertNull(cache.get("page", "user:1:nav"));
+        assertNull(cache.get("other", "user:1:sidebar"));
+        assertNotNull(cache.get("page", "user:10:nav"));
+        assertEquals(size("page", "user:10:nav", 1), cache.getSize());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        FragmentCache cache = new FragmentCache(10000);
+        cache.put("page", "fresh", new byte[1], 60000);
+        cache.put("page", "stale", new byte[1], 1);
+        Thread.sleep(10);
+        assertNotNull(cache.get("page", "fresh"));
+        assertNull(cache.get("page", "stale"));
+    }
+
+    /**
+     * How much room an entry takes up, which is more than the fragment.
+     */
+    private static long size(String template, String key, int length) {
+        FragmentCache cache = new FragmentCache(Long.MAX_VALUE);
+        cache.put(template, key, new byte[length], 0);
+        return cache.getSize();
+    }
+}
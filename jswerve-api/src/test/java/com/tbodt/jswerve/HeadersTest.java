@@ -16,8 +16,10 @@
  */
 package com.tbodt.jswerve;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import org.junit.Assume;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -81,4 +83,67 @@ public class HeadersTest {
         headerValues.put("Content-Type", "text/html");
         assertEquals(headerValues, headers.asMap());
     }
+
+    @Test
+    public void testCaseInsensitive() {
+        Headers headers = Headers.builder()
+                .header("content-TYPE", "text/html")
+                .header("x-custom-header", "1")
+                .build();
+        assertEquals("text/html", headers.get("Content-Type"));
+        assertEquals("text/html", headers.get(Headers.CONTENT_TYPE));
+        assertEquals("1", headers.get("X-CUSTOM-HEADER"));
+        assertFalse(headers.contains("X-Custom"));
+        // names end up capitalized, and well-known ones are the constants
+        assertSame(Headers.CONTENT_TYPE, headers.iterator().next().getKey());
+        assertTrue(headers.asMap().containsKey("X-Custom-Header"));
+    }
+
+    @Test
+    public void testMultipleValues() {
+        Headers headers = Headers.builder()
+                .addHeader("Set-Cookie", "a=1")
+                .addHeader("set-cookie", "b=2")
+                .header("Accept", "text/html")
+                .build();
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.getAll(Headers.SET_COOKIE));
+        assertEquals("a=1", headers.get(Headers.SET_COOKIE));
+        assertEquals(Collections.emptyList(), headers.getAll("Nope"));
+        assertEquals("a=1, b=2", headers.asMap().get("Set-Cookie"));
+        int entries = 0;
+        for (Map.Entry<String, String> header : headers)
+            entries++;
+        assertEquals(3, entries);
+
+        headers = headers.getBuilder().header("Set-Cookie", "c=3").build();
+        assertEquals(Arrays.asList("c=3"), headers.getAll(Headers.SET_COOKIE));
+    }
+
+    @Test
+    public void testLookupsDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        Headers.Builder builder = Headers.builder();
+        for (String name : new String[] {"host", "user-agent", "accept", "accept-encoding", "cookie", "x-forwarded-for"})
+            builder.header(name, "value");
+        Headers headers = builder.build();
+        for (int i = 0; i < 20000; i++)
+            headers.get("Accept-Language");
+
+        // measuring allocates a little bit by itself
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        int lookups = 10000;
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < lookups; i++) {
+            headers.get("User-Agent");
+            headers.contains(Headers.ACCEPT_LANGUAGE);
+            headers.get("X-FORWARDED-FOR");
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        assertEquals("bytes allocated per lookup", 0, allocated / lookups);
+    }
 }
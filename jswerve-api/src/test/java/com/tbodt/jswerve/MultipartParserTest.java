@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class MultipartParserTest {
+    private static final String FORM = "multipart/form-data; boundary=XyZ";
+
+    private static byte[] bytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new WTFException("no UTF-8!", ex);
+        }
+    }
+
+    private static List<String> parse(Content content) throws IOException {
+        final List<String> parts = new ArrayList<String>();
+        content.parseMultipart(new PartHandler() {
+            @Override
+            public void handlePart(Part part, InputStream data) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int b;
+                while ((b = data.read()) != -1)
+                    out.write(b);
+                parts.add(part.getName() + "=" + out.toString("UTF-8"));
+            }
+        });
+        return parts;
+    }
+
+    @Test
+    public void testForm() throws IOException {
+        String form = "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n"
+                + "\r\n"
+                + "héllo\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"upload\"; filename=\"a;b \\\"c\\\".txt\"\r\n"
+                + "Content-Type: text/csv\r\n"
+                + "\r\n"
+                + "1,2\r\n3,4\r\n--Xy-not-quite\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"nothing\"; filename=\"\"\r\n"
+                + "\r\n"
+                + "\r\n"
+                + "--XyZ--\r\n";
+        File directory = File.createTempFile("jswerve-test", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        RequestBody body = new RequestBody(new ByteArrayInputStream(bytes(form)), -1, -1, 16, directory);
+        Request request = new Request(HttpMethod.POST, URI.create("/upload"), Headers.EMPTY_HEADERS, new Content(body, FORM));
+
+        assertEquals(Collections.singletonMap("title", "héllo"), request.getPostParameters());
+        assertEquals(1, request.getUploadedFiles().size());
+        UploadedFile upload = request.getUploadedFiles().get("upload").get(0);
+        assertEquals("a;b \"c\".txt", upload.getFileName());
+        assertEquals("text/csv", upload.getContentType());
+        assertEquals(24, upload.getLength());
+        byte[] saved = new byte[(int) upload.getFile().length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(upload.getFile()));
+        in.readFully(saved);
+        in.close();
+        assertEquals("1,2\r\n3,4\r\n--Xy-not-quite", new String(saved, "UTF-8"));
+        assertEquals(directory, upload.getFile().getParentFile());
+
+        body.close();
+        assertFalse(upload.getFile().exists());
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testMultipleFiles() throws IOException {
+        String form = "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"one.txt\"\r\n"
+                + "\r\n"
+                + "one\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"two.txt\"\r\n"
+                + "\r\n"
+                + "two\r\n"
+                + "--XyZ--\r\n";
+        Request request = new Request(HttpMethod.POST, URI.create("/upload"), Headers.EMPTY_HEADERS, new Content(bytes(form), FORM));
+        List<UploadedFile> files = request.getUploadedFiles().get("files");
+        assertEquals(2, files.size());
+        assertEquals("one.txt", files.get(0).getFileName());
+        assertEquals("two.txt", files.get(1).getFileName());
+        for (UploadedFile file : files)
+            assertTrue(file.getFile().delete());
+    }
+
+    @Test
+    public void testRawBoundary() throws IOException {
+        String form = "--a+b%20c\r\n\r\none\r\n--a+b%20c--";
+        assertEquals(Arrays.asList("null=one"), parse(new Content(bytes(form), "multipart/form-data; boundary=a+b%20c")));
+        assertEquals(Arrays.asList("null=one"), parse(new Content(bytes(form), "multipart/form-data; boundary=\"a+b%20c\"")));
+        // a % that isn't followed by hex digits isn't a problem either
+        form = "--100%\r\n\r\none\r\n--100%--";
+        assertEquals(Arrays.asList("null=one"), parse(new Content(bytes(form), "multipart/form-data; boundary=\"100%\"")));
+    }
+
+    @Test
+    public void testPreambleAndEpilogue() throws IOException {
+        String form = "this is a preamble\r\n--XyZ  \r\n\r\none\r\n--XyZ\r\nContent-Disposition: form-data; name=two\r\n\r\n\r\n--XyZ--epilogue";
+        assertEquals(Arrays.asList("null=one", "two="), parse(new Content(bytes(form), FORM)));
+    }
+
+    @Test
+    public void testRandom() throws IOException {
+        Random random = new Random(42);
+        // lots of things that look like bits of the delimiter, to trip up the search
+        String[] pieces = {"\r", "\n", "\r\n", "-", "--", "\r\n-", "\r\n--", "ab", "aba", "\r\n--ab", "\r\n--aba", "x", "é"};
+        for (int i = 0; i < 5000; i++) {
+            String boundary = random.nextBoolean() ? "abab" : "aba-ab";
+            List<String> expected = new ArrayList<String>();
+            StringBuilder form = new StringBuilder();
+            int count = random.nextInt(4);
+            for (int j = 0; j < count; j++) {
+                StringBuilder data = new StringBuilder();
+                int length = random.nextInt(20);
+                for (int k = 0; k < length; k++)
+                    data.append(pieces[random.nextInt(pieces.length)]);
+                if (data.indexOf("\r\n--" + boundary) != -1)
+                    continue;
+                expected.add("f" + j + "=" + data);
+                form.append("--").append(boundary).append("\r\n");
+                form.append("Content-Disposition: form-data; name=f").append(j).append("\r\n\r\n");
+                form.append(data).append("\r\n");
+            }
+            form.append("--").append(boundary).append("--");
+            final byte[] bytes = bytes(form.toString());
+            final Random chunks = new Random(i);
+            InputStream client = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1 + chunks.nextInt(7)));
+                }
+            };
+            RequestBody body = new RequestBody(client, -1, -1, 0, null);
+            assertEquals(form.toString(), expected, parse(new Content(body, "multipart/form-data; boundary=" + boundary)));
+        }
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        String[] forms = {
+            "",
+            "--XyZ\r\n\r\nno end",
+            "--XyZ\r\n\r\nno end\r\n--XyZ",
+            "--XyZ no line break",
+            "--XyZ\r\nno colon\r\n\r\n\r\n--XyZ--",
+            "--XyZ\r\nno headers end",
+        };
+        for (String form : forms)
+            try {
+                parse(new Content(bytes(form), FORM));
+                fail(form + " was parsed");
+            } catch (StatusCodeException ex) {
+                assertEquals(StatusCode.BAD_REQUEST, ex.getStatusCode());
+            }
+    }
+
+    @Test
+    public void testNotMultipart() throws IOException {
+        for (String type : new String[] {"text/plain", "multipart/form-data", null})
+            try {
+                parse(new Content(new byte[0], type));
+                fail(type + " was parsed");
+            } catch (StatusCodeException ex) {
+                assertEquals(StatusCode.UNSUPPORTED_MEDIA_TYPE, ex.getStatusCode());
+            }
+    }
+
+    private static void assertTooLarge(String form) {
+        Request request = new Request(HttpMethod.POST, URI.create("/"), Headers.EMPTY_HEADERS, new Content(bytes(form), FORM));
+        try {
+            request.getUploadedFiles();
+            fail("the form wasn't too large");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.REQUEST_ENTITY_TOO_LARGE, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testTooManyParts() {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < 1001; i++)
+            form.append("--XyZ\r\n\r\n\r\n");
+        assertTooLarge(form.append("--XyZ--").toString());
+    }
+
+    @Test
+    public void testTooManyFiles() {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < 101; i++)
+            form.append("--XyZ\r\nContent-Disposition: form-data; name=f; filename=f").append(i).append("\r\n\r\n\r\n");
+        assertTooLarge(form.append("--XyZ--").toString());
+    }
+
+    @Test
+    public void testFieldTooLarge() {
+        char[] big = new char[65 * 1024];
+        Arrays.fill(big, 'x');
+        String form = "--XyZ\r\nContent-Disposition: form-data; name=big\r\n\r\n" + new String(big) + "\r\n--XyZ--";
+        Request request = new Request(HttpMethod.POST, URI.create("/"), Headers.EMPTY_HEADERS, new Content(bytes(form), FORM));
+        try {
+            request.getPostParameters();
+            fail("the field wasn't too large");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.REQUEST_ENTITY_TOO_LARGE, ex.getStatusCode());
+        }
+        // the body is gone, but asking again gets the same answer
+        try {
+            request.getParameters();
+            fail("the field wasn't too large the second time");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.REQUEST_ENTITY_TOO_LARGE, ex.getStatusCode());
+        }
+    }
+}
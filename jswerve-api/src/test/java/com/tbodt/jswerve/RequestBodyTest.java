@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class RequestBodyTest {
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31);
+        return data;
+    }
+
+    private static File tempDirectory() throws IOException {
+        File directory = File.createTempFile("jswerve-test", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        return directory;
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        byte[] data = data(1000);
+        File directory = tempDirectory();
+        for (long declaredLength : new long[] {1000, -1}) {
+            RequestBody body = new RequestBody(new ByteArrayInputStream(data), declaredLength, -1, 4096, directory);
+            Content content = new Content(body, "application/octet-stream");
+            assertEquals(declaredLength, content.getLength());
+            assertArrayEquals(data, content.getData());
+            assertEquals(1000, content.getLength());
+            assertEquals(0, directory.list().length);
+            body.close();
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testSpillsToFile() throws IOException {
+        byte[] data = data(100000);
+        File directory = tempDirectory();
+        RequestBody body = new RequestBody(new ByteArrayInputStream(data), -1, -1, 4096, directory);
+        Content content = new Content(body, "application/octet-stream");
+        ByteBuffer buffer = content.asByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] mapped = new byte[buffer.remaining()];
+        buffer.get(mapped);
+        assertArrayEquals(data, mapped);
+        assertEquals(1, directory.list().length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertArrayEquals(data, out.toByteArray());
+        assertArrayEquals(data, content.getData());
+
+        body.close();
+        assertEquals(0, directory.list().length);
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testExactlyAtThreshold() throws IOException {
+        File directory = tempDirectory();
+        for (int length : new int[] {4095, 4096, 4097}) {
+            byte[] data = data(length);
+            RequestBody body = new RequestBody(new ByteArrayInputStream(data), -1, -1, 4096, directory);
+            assertArrayEquals(data, new Content(body, null).getData());
+            assertEquals(length > 4096 ? 1 : 0, directory.list().length);
+            body.close();
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        byte[] data = data(1000);
+        RequestBody declared = new RequestBody(new ByteArrayInputStream(data), 1000, 999, 4096, null);
+        assertTrue(declared.isDeclaredTooLarge());
+        assertTooLarge(new Content(declared, null));
+        assertTooLarge(new Content(declared, null)); // again, because it still is
+
+        RequestBody undeclared = new RequestBody(new ByteArrayInputStream(data), -1, 999, 10, null);
+        assertFalse(undeclared.isDeclaredTooLarge());
+        assertTooLarge(new Content(undeclared, null));
+
+        RequestBody exact = new RequestBody(new ByteArrayInputStream(data), -1, 1000, 10, null);
+        assertArrayEquals(data, new Content(exact, null).getData());
+        exact.close();
+    }
+
+    private static void assertTooLarge(Content content) {
+        try {
+            content.getData();
+            fail("the body isn't too large");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.REQUEST_ENTITY_TOO_LARGE, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testStreamedOnce() throws IOException {
+        byte[] data = data(1000);
+        InputStream client = new ByteArrayInputStream(data) {
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7)); // clients send bodies in bits
+            }
+        };
+        RequestBody body = new RequestBody(client, 1000, -1, 10, null);
+        Content content = new Content(body, null);
+        InputStream in = content.openStream();
+        byte[] read = new byte[1000];
+        int count = 0;
+        int n;
+        while ((n = in.read(read, count, read.length - count)) > 0)
+            count += n;
+        assertArrayEquals(data, Arrays.copyOf(read, count));
+        try {
+            content.getData();
+            fail("the body was read twice");
+        } catch (IllegalStateException ex) {
+        }
+        body.close();
+    }
+
+    @Test
+    public void testNotReadUntilAsked() throws IOException {
+        InputStream client = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new AssertionError("the body was read");
+            }
+        };
+        RequestBody body = new RequestBody(client, 10, -1, 10, null);
+        Request request = new Request(HttpMethod.POST, java.net.URI.create("/upload"), Headers.EMPTY_HEADERS, new Content(body, "image/png"));
+        assertTrue(request.getParameters().isEmpty());
+        body.close();
+    }
+}
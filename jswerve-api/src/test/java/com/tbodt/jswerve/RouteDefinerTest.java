@@ -71,4 +71,24 @@ public class RouteDefinerTest {
         assertEquals(Controller.class, route.getController());
         assertEquals("action", route.getAction());
     }
+
+    @Test
+    public void testMatchesPath() {
+        class ParameterRoutes extends RoutesDefiner {
+            public ParameterRoutes() {
+                super(
+                        get("/users/:id/:").to(Controller.class, "action")
+                );
+            }
+        }
+        Route route = new ParameterRoutes().getRoutes().get(0);
+        assertTrue(route.hasParameters());
+        assertTrue(route.matchesPath("/users/42/anything"));
+        assertTrue(route.matchesPath("//users/42//anything/"));
+        assertFalse(route.matchesPath("/users/42"));
+        assertFalse(route.matchesPath("/users/42/anything/else"));
+        assertFalse(route.matchesPath("/people/42/anything"));
+        assertEquals(Collections.singletonMap("id", "42"), route.extractParameters("/users/42/anything"));
+        assertArrayEquals(new String[] {"users", "42"}, Route.pathComponents("//users/42/"));
+    }
 }
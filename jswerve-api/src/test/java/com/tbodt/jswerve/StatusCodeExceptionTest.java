@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class StatusCodeExceptionTest {
+    @Test
+    public void testStackless() {
+        assertEquals(0, new StatusCodeException(StatusCode.NOT_FOUND).getStackTrace().length);
+        Exception cause = new Exception();
+        StatusCodeException wrapper = new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, cause);
+        assertEquals(0, wrapper.getStackTrace().length);
+        assertTrue(cause.getStackTrace().length > 0);
+    }
+
+    @Test
+    public void testShared() {
+        StatusCodeException notFound = StatusCodeException.of(StatusCode.NOT_FOUND);
+        assertSame(notFound, StatusCodeException.of(StatusCode.NOT_FOUND));
+        assertEquals(StatusCode.NOT_FOUND, notFound.getStatusCode());
+        assertNull(notFound.getCause());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharedCauseIsFixed() {
+        StatusCodeException.of(StatusCode.BAD_REQUEST).initCause(new Exception());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class TemplateOutputTest {
+    @Test
+    public void testEncoding() throws IOException {
+        String text = "aé中😀 and some more";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // a tiny buffer, so that characters get split across drains
+        TemplateOutput out = new TemplateOutput(bytes, 5);
+        for (int i = 0; i < text.length(); i++)
+            out.append(text.charAt(i));
+        out.append(text);
+        out.write(text.getBytes("UTF-8"));
+        out.print(42);
+        out.flush();
+        assertEquals(text + text + text + "42", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testLoneSurrogates() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TemplateOutput out = new TemplateOutput(bytes);
+        out.append("\ud83dx\ude00");
+        out.flush();
+        assertEquals("?x?", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEscaping() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TemplateOutput out = new TemplateOutput(bytes, 5);
+        out.appendEscaped("<a href=\"x\">Tom & Jerry's café</a>");
+        out.printEscaped(null);
+        out.appendEscaped("clean\ud83d<");
+        out.flush();
+        assertEquals("&lt;a href=&quot;x&quot;&gt;Tom &amp; Jerry&#39;s café&lt;/a&gt;nullclean?&lt;", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testStringRender() {
+        Template template = new AbstractTemplate() {
+            @Override
+            public void render(TemplateOutput out) throws IOException {
+                out.append("café");
+            }
+        };
+        assertEquals("café", template.render());
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        TemplateOutput out = new TemplateOutput(1);
+        for (int i = 0; i < 100; i++)
+            out.append("é");
+        out.write(new byte[10]);
+        assertEquals(210, out.size());
+        assertEquals(110, out.toString().length());
+    }
+
+    @Test
+    public void testSizeEstimate() throws IOException {
+        SizeEstimate estimate = new SizeEstimate(100);
+        estimate.record(1000);
+        assertEquals(1000, estimate.get());
+        estimate.record(200);
+        assertTrue(estimate.get() < 1000 && estimate.get() > 200);
+        for (int i = 0; i < 1000; i++)
+            estimate.record(200);
+        assertEquals(200, estimate.get(), 16);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.Controller;
+import com.tbodt.jswerve.Dispatcher;
+import com.tbodt.jswerve.Route;
+import java.lang.reflect.Method;
+
+/**
+ * A route bound to the controller and the method that service it. Actions are created once, when the
+ * routing table is built, so servicing a request doesn't have to look anything up by name. If the
+ * website has a generated {@link Dispatcher}, actions are called directly through it; otherwise they
+ * are called through reflection.
+ *
+ * @author Theodore Dubois
+ */
+public final class Action {
+    private final Route route;
+    private final ControllerInfo controllerInfo;
+    private final Method method;
+    private final Dispatcher dispatcher;
+    private final int index;
+
+    Action(Route route, ControllerInfo controllerInfo, Dispatcher dispatcher, int index) throws InvalidWebsiteException {
+        this.route = route;
+        this.controllerInfo = controllerInfo;
+        // looked up even if it's never called through reflection, so a missing action is caught
+        this.method = controllerInfo.getActionMethod(route.getAction());
+        this.dispatcher = dispatcher;
+        this.index = index;
+    }
+
+    /**
+     * Invoke the action on a controller, which should have been instantiated by the controller info.
+     *
+     * @param controller the controller
+     */
+    public void invoke(Controller controller) {
+        if (dispatcher != null)
+            dispatcher.invoke(index, controller);
+        else
+            controllerInfo.invoke(controller, method);
+    }
+
+    /**
+     * Return the route.
+     *
+     * @return the route
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * Return the info of the controller that services the route.
+     *
+     * @return the info of the controller that services the route
+     */
+    public ControllerInfo getControllerInfo() {
+        return controllerInfo;
+    }
+}
@@ -20,58 +20,177 @@ import com.tbodt.jswerve.*;
 import com.tbodt.jswerve.Controller;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Information about a controller, including the class and the actions.
+ * Information about a controller, including the class and the actions. It is also where the
+ * controller looks up the templates in its package.
  *
  * @author Theodore Dubois
  */
-public final class ControllerInfo {
+public final class ControllerInfo implements TemplateLookup {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static final int SPARES = 2 * Runtime.getRuntime().availableProcessors();
+
     private final Class<? extends Controller> controllerClass;
+    private final Constructor<? extends Controller> constructor;
+    private final Dispatcher dispatcher;
+    private final int factoryRoute;
+    // not a ThreadLocal, so that threads that outlive the website don't keep its controllers around
+    private final AtomicReferenceArray<Controller> spares; // null if the controller isn't reusable
     private final Map<String, Method> actions;
     private final Map<String, TemplateInfo> templates;
 
-    private static final Map<Class<? extends Controller>, ControllerInfo> cache = new HashMap<Class<? extends Controller>, ControllerInfo>();
+    /**
+     * Return the {@code ControllerInfo}s for every controller used by the routes. The result is
+     * unmodifiable.
+     *
+     * @param routes the routes
+     * @param templates the templates of the website, which are given to the controllers in the
+     * same package
+     * @return the {@code ControllerInfo}s for every controller used by the routes
+     * @throws InvalidWebsiteException if a controller can't be instantiated
+     */
+    public static Map<Class<? extends Controller>, ControllerInfo> extract(Collection<Route> routes, Collection<TemplateInfo> templates) throws InvalidWebsiteException {
+        return extract(new ArrayList<Route>(routes), templates, null);
+    }
 
     /**
-     * Return the singleton {@code ControllerInfo} for the given class.
-     * @param controllerClass the class
-     * @return the singleton {@code ControllerInfo} for the given class
+     * Return the {@code ControllerInfo}s for every controller used by the routes, which instantiate
+     * controllers through a {@link Dispatcher} generated from the same routes. The result is
+     * unmodifiable.
+     *
+     * @param routes the routes, in the order the dispatcher numbers them
+     * @param templates the templates of the website, which are given to the controllers in the
+     * same package
+     * @param dispatcher the dispatcher, or {@code null} to instantiate controllers through reflection
+     * @return the {@code ControllerInfo}s for every controller used by the routes
+     * @throws InvalidWebsiteException if a controller can't be instantiated
      */
-    public static ControllerInfo get(Class<? extends Controller> controllerClass) {
-        if (!cache.containsKey(controllerClass))
-            cache.put(controllerClass, new ControllerInfo(controllerClass));
-        return cache.get(controllerClass);
+    public static Map<Class<? extends Controller>, ControllerInfo> extract(List<Route> routes, Collection<TemplateInfo> templates, Dispatcher dispatcher) throws InvalidWebsiteException {
+        Map<Class<? extends Controller>, ControllerInfo> controllers = new HashMap<Class<? extends Controller>, ControllerInfo>();
+        for (int i = 0; i < routes.size(); i++) {
+            Class<? extends Controller> controller = routes.get(i).getController();
+            if (!controllers.containsKey(controller))
+                controllers.put(controller, new ControllerInfo(controller, templates, dispatcher, i));
+        }
+        return Collections.unmodifiableMap(controllers);
     }
 
-    private ControllerInfo(Class<? extends Controller> controllerClass) {
+    private ControllerInfo(Class<? extends Controller> controllerClass, Collection<TemplateInfo> allTemplates, Dispatcher dispatcher, int factoryRoute) throws InvalidWebsiteException {
         this.controllerClass = controllerClass;
+        this.dispatcher = dispatcher;
+        this.factoryRoute = factoryRoute;
+        if (Modifier.isAbstract(controllerClass.getModifiers()))
+            throw new InvalidWebsiteException("controller " + controllerClass.getName() + " is abstract");
+        try {
+            constructor = controllerClass.getDeclaredConstructor();
+        } catch (NoSuchMethodException ex) {
+            throw new InvalidWebsiteException("no no-arg constructor in controller " + controllerClass.getName());
+        }
+        // same as the actions, the access check only has to happen once
+        constructor.setAccessible(true);
+        spares = controllerClass.isAnnotationPresent(Reusable.class) ? new AtomicReferenceArray<Controller>(SPARES) : null;
 
         Map<String, Method> actionsMap = new HashMap<String, Method>();
         for (Method action : controllerClass.getMethods())
-            if (Modifier.isPublic(action.getModifiers()) && action.getParameterTypes().length == 0 && action.getReturnType() == void.class)
+            if (Modifier.isPublic(action.getModifiers()) && action.getParameterTypes().length == 0 && action.getReturnType() == void.class) {
+                // skip the access check on every invocation; the method is public anyway, but its class might not be
+                action.setAccessible(true);
                 actionsMap.put(action.getName(), action);
+            }
         this.actions = Collections.unmodifiableMap(actionsMap);
 
         Map<String, TemplateInfo> templatesMap = new HashMap<String, TemplateInfo>();
-        for (TemplateInfo template : TemplateInfo.templatesForController(controllerClass))
-            templatesMap.put(template.getName(), template);
+        // by name, since templates loaded at runtime are in a package of their own class loader
+        String controllerPackage = packageName(controllerClass);
+        for (TemplateInfo template : allTemplates)
+            if (packageName(template.getTemplateClass()).equals(controllerPackage))
+                templatesMap.put(template.getName(), template);
         this.templates = Collections.unmodifiableMap(templatesMap);
     }
 
+    private static String packageName(Class<?> klass) {
+        String name = klass.getName();
+        return name.lastIndexOf('.') == -1 ? "" : name.substring(0, name.lastIndexOf('.'));
+    }
+
     /**
-     * Instantiate the controller represented by this controller info.
+     * Instantiate the controller represented by this controller info. If the controller is
+     * {@link Reusable} and a released instance is spare, that instance is returned instead. If
+     * there is a generated {@link Dispatcher}, it instantiates the controller with {@code new}.
      *
-     * @return a new controller with the right class
+     * @return a controller with the right class
      */
     public Controller instantiate() {
+        if (spares != null) {
+            Controller controller = takeSpare();
+            if (controller != null)
+                return controller;
+        }
+        if (dispatcher != null)
+            return dispatcher.instantiate(factoryRoute);
         try {
-            return controllerClass.newInstance();
+            return constructor.newInstance(NO_ARGUMENTS);
         } catch (InstantiationException ex) {
             throw new WTFException("It is TOO weird!!!", ex);
         } catch (IllegalAccessException ex) {
-            throw new WTFException("I checked! It's public!", ex);
+            throw new WTFException("I made it accessible!", ex);
+        } catch (InvocationTargetException ex) {
+            Throwable why = ex.getCause();
+            if (why instanceof StatusCodeException)
+                throw (StatusCodeException) why;
+            else
+                throw new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, why);
+        }
+    }
+
+    /**
+     * Give back a controller that is done servicing a request. If the controller is
+     * {@link Reusable}, it is recycled and kept as a spare for {@link #instantiate()} to return, as
+     * long as there aren't already a couple of spares for every processor; otherwise nothing happens.
+     *
+     * @param controller the controller, which must have come from {@link #instantiate()}
+     */
+    public void release(Controller controller) {
+        if (spares == null)
+            return;
+        controller.recycle();
+        int start = slot();
+        for (int i = 0; i < SPARES; i++) {
+            int slot = (start + i) % SPARES;
+            if (spares.get(slot) == null && spares.compareAndSet(slot, null, controller))
+                return;
+        }
+        // there are enough spares already, so this one goes to the garbage collector
+    }
+
+    private Controller takeSpare() {
+        int start = slot();
+        for (int i = 0; i < SPARES; i++) {
+            int slot = (start + i) % SPARES;
+            Controller controller = spares.get(slot);
+            if (controller != null && spares.compareAndSet(slot, controller, null))
+                return controller;
         }
+        return null;
+    }
+
+    /**
+     * Return the spare slot to start looking in, which is different for different threads so
+     * that they don't all fight over the first slot.
+     */
+    private static int slot() {
+        return (int) (Thread.currentThread().getId() % SPARES);
+    }
+
+    /**
+     * Return whether the controller is {@link Reusable}.
+     *
+     * @return whether the controller is {@code Reusable}
+     */
+    public boolean isReusable() {
+        return spares != null;
     }
 
     /**
@@ -81,12 +200,16 @@ public final class ControllerInfo {
      * @param action the action
      */
     public void invoke(Controller controller, String action) {
+        if (!actions.containsKey(action))
+            throw new WTFException("action " + action + " does't exist!");
+        invoke(controller, actions.get(action));
+    }
+
+    void invoke(Controller controller, Method action) {
         if (!controllerClass.isInstance(controller))
             throw new IllegalArgumentException("controller is not the right class");
         try {
-            if (!actions.containsKey(action))
-                throw new WTFException("action " + action + " does't exist!");
-            actions.get(action).invoke(controller);
+            action.invoke(controller);
         } catch (IllegalAccessException ex) {
             throw new WTFException("controller action is not public!", ex);
         } catch (IllegalArgumentException ex) {
@@ -100,6 +223,49 @@ public final class ControllerInfo {
         }
     }
 
+    /**
+     * Return the method for the action with the given name.
+     *
+     * @param action the name of the action
+     * @return the method for the action
+     * @throws InvalidWebsiteException if the controller has no such action
+     */
+    Method getActionMethod(String action) throws InvalidWebsiteException {
+        Method method = actions.get(action);
+        if (method == null)
+            throw new InvalidWebsiteException("action " + action + " doesn't exist in " + controllerClass.getName());
+        return method;
+    }
+
+    /**
+     * Return the templates in the same package as the controller, by name. The result is
+     * unmodifiable.
+     *
+     * @return the templates in the same package as the controller
+     */
+    public Map<String, TemplateInfo> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Return a new instance of a template in the same package as the controller, by the name of
+     * its file without {@code .jtl}, such as {@code hello.html}, or by its class name, such as
+     * {@code hello_html}.
+     *
+     * @param name the name of the template
+     * @param args the template's parameters
+     * @return a new instance of the template
+     * @throws IllegalArgumentException if there is no such template, or it doesn't take those
+     * parameters
+     */
+    @Override
+    public Template newTemplate(String name, Object... args) {
+        TemplateInfo template = templates.get(name.replace('.', '_'));
+        if (template == null)
+            throw new IllegalArgumentException("no template " + name + " in the package of " + controllerClass.getName());
+        return template.newInstance(args);
+    }
+
     /**
      * Return the class this is a controller info for.
      *
@@ -0,0 +1,49 @@
+/* MethodNotAllowedException Copyright (C) 2015 Theodore Dubois.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.Request;
+import com.tbodt.jswerve.StatusCode;
+
+/**
+ * Thrown when there are routes for the path of a request, but none of them take the request's method.
+ *
+ * @author Theodore Dubois
+ */
+public class MethodNotAllowedException extends RoutingException {
+    private final String allow;
+
+    /**
+     * Creates a new instance of {@code MethodNotAllowedException}.
+     *
+     * @param request the request that couldn't be routed
+     * @param allow the value of the {@code Allow} header to send back
+     */
+    public MethodNotAllowedException(Request request, String allow) {
+        super(request, StatusCode.METHOD_NOT_ALLOWED);
+        this.allow = allow;
+    }
+
+    /**
+     * Return the value of the {@code Allow} header, which lists the methods that the path does take.
+     *
+     * @return the value of the {@code Allow} header
+     */
+    public String getAllow() {
+        return allow;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of routed paths, which maps a method and a raw path to the action of the route
+ * that matched it and the path parameters it extracted. Only paths that were routed successfully
+ * are cached, so floods of requests for paths that don't exist can't push out the ones that do.
+ *
+ * Lookups don't take any locks. When the cache is full, an entry is evicted with the clock
+ * algorithm: every entry has a bit that is set when it is used, and the clock hand sweeps over the
+ * entries clearing bits until it finds one that hasn't been used since the last sweep.
+ *
+ * @author Theodore Dubois
+ */
+public final class RouteCache {
+    private final Map<HttpMethod, ConcurrentHashMap<String, Entry>> entries = new EnumMap<HttpMethod, ConcurrentHashMap<String, Entry>>(HttpMethod.class);
+    private final Entry[] clock;
+    private int hand;
+    private int size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Construct an empty cache that holds at most {@code capacity} paths.
+     *
+     * @param capacity the maximum number of paths in the cache
+     * @throws IllegalArgumentException if the capacity isn't positive
+     */
+    public RouteCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        clock = new Entry[capacity];
+        // the maps are all created up front so that reading the EnumMap is thread-safe
+        for (HttpMethod method : HttpMethod.values())
+            entries.put(method, new ConcurrentHashMap<String, Entry>());
+    }
+
+    /**
+     * Return the cached entry for the method and path, or {@code null} if there is none.
+     */
+    Entry get(HttpMethod method, String path) {
+        Entry entry = entries.get(method).get(path);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.used = true;
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Cache the route for the method and path, evicting something else if the cache is full.
+     */
+    synchronized void put(HttpMethod method, String path, Action action, Map<String, String> parameters) {
+        Map<String, Entry> methodEntries = entries.get(method);
+        if (methodEntries.containsKey(path))
+            return; // someone else got here first
+        if (size == clock.length) {
+            while (clock[hand].used) {
+                clock[hand].used = false;
+                hand = (hand + 1) % clock.length;
+            }
+            entries.get(clock[hand].method).remove(clock[hand].path);
+        } else
+            size++;
+        Entry entry = new Entry(method, path, action, parameters);
+        clock[hand] = entry;
+        hand = (hand + 1) % clock.length;
+        methodEntries.put(path, entry);
+    }
+
+    /**
+     * Return the maximum number of paths in the cache.
+     *
+     * @return the maximum number of paths in the cache
+     */
+    public int getCapacity() {
+        return clock.length;
+    }
+
+    /**
+     * Return the number of paths in the cache.
+     *
+     * @return the number of paths in the cache
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Return the number of lookups that found their path in the cache.
+     *
+     * @return the number of lookups that found their path in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Return the number of lookups that didn't find their path in the cache.
+     *
+     * @return the number of lookups that didn't find their path in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    static final class Entry {
+        private final HttpMethod method;
+        private final String path;
+        private final Action action;
+        private final Map<String, String> parameters;
+        private volatile boolean used;
+
+        Entry(HttpMethod method, String path, Action action, Map<String, String> parameters) {
+            this.method = method;
+            this.path = path;
+            this.action = action;
+            this.parameters = parameters;
+        }
+
+        Action getAction() {
+            return action;
+        }
+
+        /**
+         * Return the path parameters, or {@code null} if the route doesn't have any.
+         */
+        Map<String, String> getParameters() {
+            return parameters;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.*;
+import com.tbodt.jswerve.util.PathUtils;
+import java.util.*;
+
+/**
+ * A trie of routes, keyed by path component. Static components are looked up in a map of children,
+ * and {@code :param} and {@code :} components all share one wildcard child that is tried after the
+ * static child. When more than one route matches a path, the one that was declared first wins, just
+ * like a linear scan of the routes would do.
+ *
+ * Lookups walk the path string in place with {@link PathUtils}, so they don't split the path up or
+ * allocate anything.
+ *
+ * The trie doesn't look at the methods of the routes when it finds one, so it is meant to be built
+ * out of routes that all match the same method. To tell which methods would have matched a path, it
+ * also builds a second trie where a path only ever has one way to go: each of its nodes stands for
+ * the set of nodes of the first trie that a path can reach at the same time, and has the
+ * {@code Allow} header for all of them built ahead of time.
+ *
+ * @author Theodore Dubois
+ */
+final class RouteTrie {
+    private final Action[] actions;
+    private final Node root = new Node();
+    private final AllowNode allowRoot;
+
+    /**
+     * Build a trie out of the actions' routes. The order of the list is the priority of the routes.
+     *
+     * @param actions the actions
+     */
+    RouteTrie(List<Action> actions) {
+        this.actions = actions.toArray(new Action[actions.size()]);
+        for (int i = 0; i < this.actions.length; i++)
+            insert(this.actions[i].getRoute(), i);
+        allowRoot = buildAllow(Collections.singleton(root), new HashMap<Set<Node>, AllowNode>());
+    }
+
+    private void insert(Route route, int index) {
+        Node node = root;
+        node.minIndex = Math.min(node.minIndex, index);
+        for (String component : route.getPattern()) {
+            Node next;
+            if (component.startsWith(":")) {
+                if (node.wildcard == null)
+                    node.wildcard = new Node();
+                next = node.wildcard;
+            } else {
+                next = node.children.get(component);
+                if (next == null) {
+                    next = new Node();
+                    node.children.put(component, next);
+                }
+            }
+            node = next;
+            node.minIndex = Math.min(node.minIndex, index);
+        }
+        if (node.first == -1)
+            node.first = index;
+        node.methods.addAll(route.getMethods());
+    }
+
+    /**
+     * Build the node of the allow trie for a set of nodes that a path can reach at the same time.
+     * A component either goes to a static child of some of the nodes, along with all their
+     * wildcards, or only to the wildcards. Sets that come up more than once share a node.
+     */
+    private static AllowNode buildAllow(Set<Node> nodes, Map<Set<Node>, AllowNode> built) {
+        AllowNode allowNode = built.get(nodes);
+        if (allowNode != null)
+            return allowNode;
+        allowNode = new AllowNode();
+        built.put(nodes, allowNode);
+
+        EnumSet<HttpMethod> methods = EnumSet.noneOf(HttpMethod.class);
+        boolean matches = false;
+        Set<Node> wildcards = new HashSet<Node>();
+        Set<String> components = new HashSet<String>();
+        for (Node node : nodes) {
+            if (node.first != -1) {
+                matches = true;
+                methods.addAll(node.methods);
+            }
+            if (node.wildcard != null)
+                wildcards.add(node.wildcard);
+            components.addAll(node.children.keys());
+        }
+        allowNode.allow = matches ? formatAllow(methods) : null;
+        for (String component : components) {
+            Set<Node> next = new HashSet<Node>(wildcards);
+            for (Node node : nodes)
+                if (node.children.get(component) != null)
+                    next.add(node.children.get(component));
+            allowNode.children.put(component, buildAllow(next, built));
+        }
+        if (!wildcards.isEmpty())
+            allowNode.other = buildAllow(wildcards, built);
+        return allowNode;
+    }
+
+    /**
+     * Return the action of the first route that matches the path, or {@code null} if none does.
+     *
+     * @param path the path
+     * @return the action of the first route that matches, or {@code null}
+     */
+    Action find(String path) {
+        int index = search(root, path, PathUtils.componentStart(path, 0), actions.length);
+        if (index == actions.length)
+            return null;
+        return actions[index];
+    }
+
+    private int search(Node node, String path, int start, int best) {
+        // nothing in here can beat what we already have
+        if (node.minIndex >= best)
+            return best;
+        if (start == path.length()) {
+            if (node.first != -1 && node.first < best)
+                return node.first;
+            return best;
+        }
+        int end = PathUtils.componentEnd(path, start);
+        int next = PathUtils.componentStart(path, end);
+        Node child = node.children.get(path, start, end);
+        if (child != null)
+            best = search(child, path, next, best);
+        if (node.wildcard != null)
+            best = search(node.wildcard, path, next, best);
+        return best;
+    }
+
+    /**
+     * Return the value of an {@code Allow} header listing every method of every route that matches
+     * the path, or {@code null} if no route matches. The header was built with the trie, so this
+     * only walks the path.
+     *
+     * @param path the path
+     * @return the value of the {@code Allow} header for the path, or {@code null}
+     */
+    String allow(String path) {
+        AllowNode node = allowRoot;
+        int start = PathUtils.componentStart(path, 0);
+        while (start != path.length()) {
+            int end = PathUtils.componentEnd(path, start);
+            AllowNode child = node.children.get(path, start, end);
+            node = child != null ? child : node.other;
+            if (node == null)
+                return null;
+            start = PathUtils.componentStart(path, end);
+        }
+        return node.allow;
+    }
+
+    private static String formatAllow(Set<HttpMethod> methods) {
+        StringBuilder allow = new StringBuilder();
+        Iterator<HttpMethod> i = methods.iterator();
+        while (i.hasNext()) {
+            allow.append(i.next());
+            if (i.hasNext())
+                allow.append(",");
+        }
+        return allow.toString();
+    }
+
+    private static final class Node {
+        private final SegmentMap<Node> children = new SegmentMap<Node>();
+        private Node wildcard;
+        private int minIndex = Integer.MAX_VALUE;
+        private int first = -1;
+        private final EnumSet<HttpMethod> methods = EnumSet.noneOf(HttpMethod.class);
+    }
+
+    private static final class AllowNode {
+        private final SegmentMap<AllowNode> children = new SegmentMap<AllowNode>();
+        private AllowNode other; // where components that aren't in children go
+        private String allow; // null if no route ends here
+    }
+}
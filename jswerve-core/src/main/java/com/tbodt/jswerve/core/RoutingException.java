@@ -31,6 +31,17 @@ public class RoutingException extends StatusCodeException {
      * @param request the request that couldn't be routed
      */
     public RoutingException(Request request) {
-        super(StatusCode.NOT_FOUND);
+        // a null cause, instead of none at all, means the shared instance can't be given one later
+        super(StatusCode.NOT_FOUND, null);
+    }
+
+    /**
+     * Creates a new instance of {@code RoutingException} with a status code other than Not Found.
+     *
+     * @param request the request that couldn't be routed
+     * @param code the status code
+     */
+    protected RoutingException(Request request, StatusCode code) {
+        super(code, null);
     }
 }
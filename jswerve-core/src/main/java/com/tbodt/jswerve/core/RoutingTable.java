@@ -24,10 +24,62 @@ import java.util.*;
  * @author Theodore Dubois
  */
 public final class RoutingTable {
+    // it has no stack trace and nothing about the request in it, so one will do for every miss
+    private static final RoutingException NOT_FOUND = new RoutingException(null);
+
     private final List<Route> routes;
+    private final Map<Class<? extends Controller>, ControllerInfo> controllers;
+    private final List<Action> actions;
+    private final Dispatcher dispatcher;
+    private final RouteTrie allRoutes;
+    private final Map<HttpMethod, RouteTrie> routesByMethod = new EnumMap<HttpMethod, RouteTrie>(HttpMethod.class);
+    private volatile RouteCache cache;
+
+    private RoutingTable(List<Route> routes, Collection<TemplateInfo> templates, Dispatcher dispatcher) throws InvalidWebsiteException {
+        this.routes = routes;
+        // every controller is resolved here, so routing never has to look one up
+        this.controllers = ControllerInfo.extract(routes, templates, dispatcher);
+        this.actions = new ArrayList<Action>();
+        for (int i = 0; i < routes.size(); i++)
+            actions.add(new Action(routes.get(i), controllers.get(routes.get(i).getController()), dispatcher, i));
+        this.dispatcher = dispatcher;
+        // the Allow header still comes from a trie of every route
+        allRoutes = new RouteTrie(actions);
+        if (dispatcher == null)
+            for (HttpMethod method : HttpMethod.values()) {
+                List<Action> methodActions = new ArrayList<Action>();
+                for (Action action : actions)
+                    if (action.getRoute().getMethods().contains(method))
+                        methodActions.add(action);
+                if (!methodActions.isEmpty())
+                    routesByMethod.put(method, new RouteTrie(methodActions));
+            }
+    }
+
+    /**
+     * Return a new {@code RoutingTable} by finding the class in the classes that implements
+     * {@link RoutesDefiner} and using it to define the routes. The templates among the classes are
+     * given to the controllers.
+     *
+     * @param classes the classes in which to look for {@link RoutesDefiner}
+     * @return a new {@code RoutingTable} from that {@link RoutesDefiner}
+     * @throws InvalidWebsiteException if no {@link RoutesDefiner} could be found, or more than one,
+     * or it could not be instantiated
+     */
+    public static RoutingTable extract(Collection<Class<?>> classes) throws InvalidWebsiteException {
+        return create(findRoutesDefiner(classes), TemplateInfo.extract(classes));
+    }
 
+    /**
+     * Find the class in the classes that implements {@link RoutesDefiner} and instantiate it.
+     *
+     * @param classes the classes in which to look for {@link RoutesDefiner}
+     * @return a new instance of the {@link RoutesDefiner}
+     * @throws InvalidWebsiteException if no {@link RoutesDefiner} could be found, or more than one,
+     * or it could not be instantiated
+     */
     @SuppressWarnings("unchecked")
-    private RoutingTable(Collection<Class<?>> classes) throws InvalidWebsiteException {
+    public static RoutesDefiner findRoutesDefiner(Collection<Class<?>> classes) throws InvalidWebsiteException {
         Class<? extends RoutesDefiner> definerClass = null;
         for (Class<?> klass : classes)
             if (RoutesDefiner.class.isAssignableFrom(klass))
@@ -40,7 +92,7 @@ public final class RoutingTable {
             throw new InvalidWebsiteException("no RoutesDefiner");
 
         try {
-            routes = definerClass.newInstance().getRoutes();
+            return definerClass.newInstance();
         } catch (InstantiationException ex) {
             throw new InvalidWebsiteException("no no-arg constructor in RoutesDefiner");
         } catch (IllegalAccessException ex) {
@@ -49,16 +101,44 @@ public final class RoutingTable {
     }
 
     /**
-     * Return a new {@code RoutingTable} by finding the class in the classes that implements
-     * {@link RoutesDefiner} and using it to define the routes.
+     * Return a new {@code RoutingTable} with the routes defined by the given {@link RoutesDefiner}
+     * and no templates.
      *
-     * @param classes the classes in which to look for {@link RoutesDefiner}
-     * @return a new {@code RoutingTable} from that {@link RoutesDefiner}
-     * @throws InvalidWebsiteException if no {@link RoutesDefiner} could be found, or more than one,
-     * or it could not be instantiated
+     * @param definer the {@link RoutesDefiner}
+     * @return a new {@code RoutingTable} with the routes defined by {@code definer}
+     * @throws InvalidWebsiteException if a route's action doesn't exist
      */
-    public static RoutingTable extract(Collection<Class<?>> classes) throws InvalidWebsiteException {
-        return new RoutingTable(classes);
+    public static RoutingTable create(RoutesDefiner definer) throws InvalidWebsiteException {
+        return create(definer, Collections.<TemplateInfo>emptyList());
+    }
+
+    /**
+     * Return a new {@code RoutingTable} with the routes defined by the given {@link RoutesDefiner}.
+     * The controller of every route is resolved right away, and gets the templates in its package.
+     *
+     * @param definer the {@link RoutesDefiner}
+     * @param templates the templates of the website
+     * @return a new {@code RoutingTable} with the routes defined by {@code definer}
+     * @throws InvalidWebsiteException if a route's action doesn't exist
+     */
+    public static RoutingTable create(RoutesDefiner definer, Collection<TemplateInfo> templates) throws InvalidWebsiteException {
+        return create(definer, templates, null);
+    }
+
+    /**
+     * Return a new {@code RoutingTable} with the routes defined by the given {@link RoutesDefiner},
+     * which are matched and whose actions are called by a {@link Dispatcher} generated from the same
+     * {@code RoutesDefiner}.
+     *
+     * @param definer the {@link RoutesDefiner}
+     * @param templates the templates of the website
+     * @param dispatcher the dispatcher, or {@code null} to match routes with a trie and call actions
+     * through reflection
+     * @return a new {@code RoutingTable} with the routes defined by {@code definer}
+     * @throws InvalidWebsiteException if a route's action doesn't exist
+     */
+    public static RoutingTable create(RoutesDefiner definer, Collection<TemplateInfo> templates, Dispatcher dispatcher) throws InvalidWebsiteException {
+        return new RoutingTable(Collections.unmodifiableList(new ArrayList<Route>(definer.getRoutes())), templates, dispatcher);
     }
 
     /**
@@ -70,37 +150,100 @@ public final class RoutingTable {
         return routes;
     }
 
+    /**
+     * Return the controllers used by the routes in this routing table. The result is unmodifiable.
+     *
+     * @return the controllers used by the routes in this routing table
+     */
+    public Map<Class<? extends Controller>, ControllerInfo> getControllers() {
+        return controllers;
+    }
+
     /**
      * Return the first route that matches the given request.
      *
      * @param request the request
      * @return the first route that matches the given request
+     * @throws MethodNotAllowedException if routes match the path, but not the method
+     * @throws RoutingException if no route matches the path
      */
     public Route route(Request request) {
-        for (Route route : routes)
-            if (route.getMethods().contains(request.getMethod())
-                    && pathsMatch(request.getUri().getPath(), route.getPattern(), request))
-                return route;
-        throw new RoutingException(request);
+        return findAction(request).getRoute();
     }
 
-    private boolean pathsMatch(String path, String[] pattern, Request request) {
-        int i, j;
-        Map<String, String> paremeters = new HashMap<String, String>();
-        String[] pathComponents = Route.pathComponents(path);
-        for (i = 0, j = 0; i < pattern.length && j < pathComponents.length; i++, j++) {
-            String patternComponent = pattern[i];
-            String pathComponent = pathComponents[j];
-            if (patternComponent.startsWith(":")) {
-                if (!patternComponent.equals(":"))
-                    paremeters.put(patternComponent.substring(1), pathComponent);
-            } else if (!patternComponent.equals(pathComponent))
-                return false;
+    /**
+     * Return the action of the first route that matches the given request.
+     *
+     * @param request the request
+     * @return the action of the first route that matches the given request
+     * @throws MethodNotAllowedException if routes match the path, but not the method
+     * @throws RoutingException if no route matches the path
+     */
+    public Action findAction(Request request) {
+        String path = request.getUri().getPath();
+        RouteCache routeCache = cache;
+        if (routeCache != null) {
+            RouteCache.Entry entry = routeCache.get(request.getMethod(), path);
+            if (entry != null) {
+                if (entry.getParameters() != null)
+                    request.setPathParameters(entry.getParameters());
+                return entry.getAction();
+            }
+        }
+
+        Action action;
+        if (dispatcher != null) {
+            int index = dispatcher.route(request.getMethod(), path);
+            action = index == -1 ? null : actions.get(index);
+        } else {
+            RouteTrie trie = routesByMethod.get(request.getMethod());
+            action = trie == null ? null : trie.find(path);
+        }
+        if (action == null) {
+            String allow = allRoutes.allow(path);
+            if (allow != null)
+                throw new MethodNotAllowedException(request, allow);
+            throw NOT_FOUND;
         }
-        if (i == pattern.length && j == pathComponents.length) {
-            request.setPathParameters(paremeters);
-            return true;
-        } else
-            return false;
+        // only now that we have a match is it worth making strings out of the parameters
+        Map<String, String> parameters = null;
+        Route route = action.getRoute();
+        if (route.hasParameters()) {
+            parameters = Collections.unmodifiableMap(route.extractParameters(path));
+            request.setPathParameters(parameters);
+        }
+        if (routeCache != null)
+            routeCache.put(request.getMethod(), path, action, parameters);
+        return action;
+    }
+
+    /**
+     * Put a cache of routed paths in front of the routing table, so that requests for the same
+     * paths over and over again skip matching entirely. If the size is 0, the cache is removed.
+     *
+     * @param size the maximum number of paths in the cache, or 0 for no cache
+     */
+    public void setCacheSize(int size) {
+        cache = size == 0 ? null : new RouteCache(size);
+    }
+
+    /**
+     * Return the cache of routed paths, or {@code null} if there isn't one.
+     *
+     * @return the cache of routed paths, or {@code null}
+     */
+    public RouteCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Return the value of the {@code Allow} header for the given path, which lists the methods of
+     * every route that matches the path. If no route matches the path, return {@code null}.
+     *
+     * @param path the path
+     * @return the value of the {@code Allow} header for the path, or {@code null}
+     */
+    public String getAllowHeader(String path) {
+        return allRoutes.allow(path);
     }
 }
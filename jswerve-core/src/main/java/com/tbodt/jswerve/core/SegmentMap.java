@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.util.PathUtils;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hash map from path components to values, which can be queried with a range of a path string
+ * instead of a substring. It uses open addressing, so looking something up allocates nothing.
+ *
+ * @param <V> the type of the values
+ * @author Theodore Dubois
+ */
+final class SegmentMap<V> {
+    private String[] keys = new String[4];
+    private int[] hashes = new int[4];
+    private Object[] values = new Object[4];
+    private int size;
+
+    /**
+     * Return the value for the component of the path in {@code [start, end)}, or {@code null}.
+     *
+     * @param path the path
+     * @param start where the component begins
+     * @param end where the component ends
+     * @return the value for the component, or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    V get(String path, int start, int end) {
+        if (size == 0)
+            return null;
+        int hash = PathUtils.componentHash(path, start, end);
+        int mask = keys.length - 1;
+        for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask)
+            if (hashes[i] == hash && PathUtils.componentEquals(path, start, end, keys[i]))
+                return (V) values[i];
+        return null;
+    }
+
+    /**
+     * Return the value for the component, or {@code null}.
+     *
+     * @param component the component
+     * @return the value for the component, or {@code null}
+     */
+    V get(String component) {
+        return get(component, 0, component.length());
+    }
+
+    /**
+     * Associate the value with the component.
+     *
+     * @param component the component
+     * @param value the value
+     */
+    void put(String component, V value) {
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+        int hash = component.hashCode();
+        int mask = keys.length - 1;
+        int i = spread(hash) & mask;
+        while (keys[i] != null && !keys[i].equals(component))
+            i = (i + 1) & mask;
+        if (keys[i] == null)
+            size++;
+        keys[i] = component;
+        hashes[i] = hash;
+        values[i] = value;
+    }
+
+    /**
+     * Return the components that have values, in no particular order.
+     *
+     * @return the components that have values
+     */
+    List<String> keys() {
+        List<String> components = new ArrayList<String>(size);
+        for (String key : keys)
+            if (key != null)
+                components.add(key);
+        return components;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != null) {
+                @SuppressWarnings("unchecked")
+                V value = (V) oldValues[i];
+                put(oldKeys[i], value);
+            }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
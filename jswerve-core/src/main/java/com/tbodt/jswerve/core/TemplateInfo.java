@@ -16,13 +16,13 @@
  */
 package com.tbodt.jswerve.core;
 
+import com.tbodt.jswerve.StatusCode;
+import com.tbodt.jswerve.StatusCodeException;
 import com.tbodt.jswerve.Template;
-import com.tbodt.jswerve.Controller;
+import com.tbodt.jswerve.WTFException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Information about a template.
@@ -30,38 +30,107 @@ import java.util.Set;
  * @author Theodore Dubois
  */
 public final class TemplateInfo {
+    // a primitive parameter can take an argument of its wrapper type
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+
+    static {
+        WRAPPERS.put(boolean.class, Boolean.class);
+        WRAPPERS.put(byte.class, Byte.class);
+        WRAPPERS.put(char.class, Character.class);
+        WRAPPERS.put(short.class, Short.class);
+        WRAPPERS.put(int.class, Integer.class);
+        WRAPPERS.put(long.class, Long.class);
+        WRAPPERS.put(float.class, Float.class);
+        WRAPPERS.put(double.class, Double.class);
+    }
+
     private final Class<? extends Template> templateClass;
     private final String name;
     private final Template templateInstance;
-
-    private static final Map<Class<? extends Template>, TemplateInfo> templates = new HashMap<Class<? extends Template>, TemplateInfo>();
+    private final Constructor<?>[] constructors;
 
     /**
-     * Return all the {@code TemplateInfo}s for templates in the same package as
-     * the given controller.
+     * Return {@code TemplateInfo}s for all the templates among the classes. The result is
+     * unmodifiable.
      *
-     * @param controller the controller's class
-     * @return all the {@code TemplateInfo}s for templates in the same package
-     * as the given controller
+     * @param classes the classes
+     * @return {@code TemplateInfo}s for all the templates among the classes
+     * @throws InvalidWebsiteException if a template can't be instantiated
      */
-    public static Set<TemplateInfo> templatesForController(Class<? extends Controller> controller) {
-        Set<TemplateInfo> templateSet = new HashSet<TemplateInfo>();
-        Package controllerPackage = controller.getPackage();
-        for (Class<? extends Template> templateClass : templates.keySet())
-            if (templateClass.getPackage() == controllerPackage)
-                templateSet.add(templates.get(templateClass));
-        return templateSet;
+    public static List<TemplateInfo> extract(Collection<Class<?>> classes) throws InvalidWebsiteException {
+        List<TemplateInfo> templates = new ArrayList<TemplateInfo>();
+        for (Class<?> klass : classes)
+            if (Template.class.isAssignableFrom(klass)) {
+                @SuppressWarnings("unchecked")
+                Class<? extends Template> templateClass = (Class<? extends Template>) klass;
+                templates.add(new TemplateInfo(templateClass));
+            }
+        return Collections.unmodifiableList(templates);
     }
 
     /**
      * Renders the template and returns the result.
      *
      * @return the result of rendering the template
+     * @throws IllegalStateException if the template takes parameters
      */
     public String render() {
+        if (templateInstance == null)
+            throw new IllegalStateException("template " + name + " takes parameters");
         return templateInstance.render();
     }
 
+    /**
+     * Return a new instance of the template, constructed with the arguments. The constructor is the
+     * public one whose parameters the arguments fit, with primitive parameters taking their
+     * wrappers. A template that takes no parameters isn't constructed again.
+     *
+     * @param args the arguments
+     * @return an instance of the template
+     * @throws IllegalArgumentException if no constructor takes the arguments
+     */
+    public Template newInstance(Object... args) {
+        if (args.length == 0 && templateInstance != null)
+            return templateInstance;
+        for (Constructor<?> constructor : constructors)
+            if (accepts(constructor.getParameterTypes(), args))
+                try {
+                    return (Template) constructor.newInstance(args);
+                } catch (InstantiationException ex) {
+                    throw new WTFException("template " + name + " became abstract", ex);
+                } catch (IllegalAccessException ex) {
+                    throw new WTFException("public constructor of " + name + " is not accessible", ex);
+                } catch (InvocationTargetException ex) {
+                    Throwable why = ex.getCause();
+                    if (why instanceof StatusCodeException)
+                        throw (StatusCodeException) why;
+                    else
+                        throw new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, why);
+                }
+        throw new IllegalArgumentException("template " + name + " doesn't take " + args.length + " parameters of those types");
+    }
+
+    private static boolean accepts(Class<?>[] types, Object[] args) {
+        if (types.length != args.length)
+            return false;
+        for (int i = 0; i < types.length; i++) {
+            Class<?> type = types[i].isPrimitive() ? WRAPPERS.get(types[i]) : types[i];
+            if (args[i] == null ? types[i].isPrimitive() : !type.isInstance(args[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return whether the template takes parameters, in which case it has no no-arg constructor and
+     * has to be constructed by the controller.
+     *
+     * @return whether the template takes parameters
+     */
+    public boolean hasParameters() {
+        return templateInstance == null;
+    }
+
     /**
      * Return the name.
      *
@@ -71,21 +140,25 @@ public final class TemplateInfo {
         return name;
     }
 
-    static void fillCache(Set<Class<?>> allClasses) throws InvalidWebsiteException {
-        for (Class<?> klass : allClasses)
-            if (Template.class.isAssignableFrom(klass)) {
-                @SuppressWarnings("unchecked")
-                Class<? extends Template> templateClass = (Class<? extends Template>) klass;
-                templates.put(templateClass, new TemplateInfo(templateClass));
-            }
+    /**
+     * Return the class of the template.
+     *
+     * @return the class of the template
+     */
+    public Class<? extends Template> getTemplateClass() {
+        return templateClass;
     }
 
     private TemplateInfo(Class<? extends Template> templateClass) throws InvalidWebsiteException {
         this.templateClass = templateClass;
+        Constructor<? extends Template> constructor;
         try {
-            templateInstance = templateClass.getConstructor().newInstance();
+            constructor = templateClass.getConstructor();
         } catch (NoSuchMethodException ex) {
-            throw new InvalidWebsiteException("template has no no-arg constructor");
+            constructor = null; // it takes parameters
+        }
+        try {
+            templateInstance = constructor == null ? null : constructor.newInstance();
         } catch (InstantiationException ex) {
             throw new InvalidWebsiteException("template is an abstract class");
         } catch (IllegalAccessException ex) {
@@ -95,5 +168,6 @@ public final class TemplateInfo {
         }
 
         name = templateClass.getSimpleName();
+        constructors = templateClass.getConstructors();
     }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.WTFException;
+import com.tbodt.jtl.Jtl;
+import com.tbodt.jtl.JtlException;
+import com.tbodt.jtl.TemplateResolver;
+import java.io.*;
+import java.net.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * Compiles JTL templates at runtime, so that changing a template doesn't need a rebuild. Templates
+ * are generated and compiled in memory, with the same names the Maven plugin would give them, and
+ * loaded in a class loader of their own which is thrown away when they are loaded again.
+ *
+ * Compiled classes are cached in a directory, keyed by a hash of the generated source, so
+ * templates that haven't changed aren't compiled again after a restart. Since the generated source
+ * includes everything a template includes or extends, changing a layout changes the hash of every
+ * template that uses it. The hash also covers the classpath the templates were compiled against,
+ * so a website redeployed with different classes doesn't get templates compiled for the old ones.
+ * The classpath is only looked at once per loader, since a redeployed website gets a new one.
+ *
+ * @author Theodore Dubois
+ */
+public final class TemplateLoader {
+    private final File sourceDirectory;
+    private final File cacheDirectory;
+    private final ClassLoader parent;
+    private String classpath;
+    private byte[] fingerprint;
+    private Map<String, String> stamps = Collections.emptyMap();
+    private int compiled;
+
+    /**
+     * Construct a loader for the templates in a directory.
+     *
+     * @param sourceDirectory the directory the templates are in
+     * @param cacheDirectory the directory compiled templates are cached in
+     * @param parent the class loader of the website, which the templates can use classes from
+     */
+    public TemplateLoader(File sourceDirectory, File cacheDirectory, ClassLoader parent) {
+        this.sourceDirectory = sourceDirectory;
+        this.cacheDirectory = cacheDirectory;
+        this.parent = parent;
+    }
+
+    /**
+     * Generate, compile and load all the templates in the directory, and return them. Templates
+     * that are in the cache aren't compiled again. The templates count as not modified afterwards
+     * even if this fails, since loading them again would fail the same way.
+     *
+     * @return the templates
+     * @throws IOException if a template can't be read
+     * @throws InvalidWebsiteException if a template is invalid or doesn't compile
+     */
+    public synchronized List<TemplateInfo> load() throws IOException, InvalidWebsiteException {
+        stamps = stamp();
+        Map<String, String> sources = new TreeMap<String, String>();
+        for (String path : stamps.keySet()) {
+            // partials and layouts are only ever inlined into other templates
+            if (path.substring(path.lastIndexOf('/') + 1).startsWith("_"))
+                continue;
+            String className = path.substring(0, path.length() - ".jtl".length()).replace('.', '_').replace('/', '.');
+            int lastDot = className.lastIndexOf('.');
+            String packageName = lastDot == -1 ? "" : className.substring(0, lastDot);
+            try {
+                sources.put(className, Jtl.generateClass(path, new FileResolver(), packageName, className.substring(lastDot + 1)));
+            } catch (JtlException ex) {
+                throw new InvalidWebsiteException(path + ": " + ex.getMessage());
+            }
+        }
+
+        if (classpath == null) {
+            classpath = classpath(parent);
+            fingerprint = fingerprint(classpath);
+        }
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        Map<String, String> uncached = new TreeMap<String, String>();
+        for (Map.Entry<String, String> source : sources.entrySet())
+            if (!readCache(new File(cacheDirectory, hash(fingerprint, source.getValue())), source.getKey(), classes))
+                uncached.put(source.getKey(), source.getValue());
+        if (!uncached.isEmpty()) {
+            Map<String, byte[]> output = compile(uncached, classpath);
+            classes.putAll(output);
+            for (Map.Entry<String, String> source : uncached.entrySet())
+                writeCache(new File(cacheDirectory, hash(fingerprint, source.getValue())), source.getKey(), output);
+        }
+        compiled = uncached.size();
+
+        ClassLoader loader = new TemplateClassLoader(parent, classes);
+        List<Class<?>> templateClasses = new ArrayList<Class<?>>();
+        for (String className : sources.keySet())
+            try {
+                templateClasses.add(loader.loadClass(className));
+            } catch (ClassNotFoundException ex) {
+                throw new InvalidWebsiteException("template " + className + " compiled to nothing");
+            }
+        return TemplateInfo.extract(templateClasses);
+    }
+
+    /**
+     * Return whether any template has been added, removed or changed since the last time they were
+     * loaded.
+     *
+     * @return whether any template has changed
+     */
+    public synchronized boolean isModified() {
+        return !stamp().equals(stamps);
+    }
+
+    /**
+     * Return how many templates had to be compiled, because they weren't in the cache, the last
+     * time they were loaded.
+     *
+     * @return how many templates were compiled
+     */
+    public synchronized int getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Return the modification time and size of every template, partials included, by path.
+     */
+    private Map<String, String> stamp() {
+        Map<String, String> newStamps = new TreeMap<String, String>();
+        stampDirectory(sourceDirectory, "", newStamps);
+        return newStamps;
+    }
+
+    private static void stampDirectory(File directory, String path, Map<String, String> stamps) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files)
+            if (file.isDirectory())
+                stampDirectory(file, path + file.getName() + "/", stamps);
+            else if (file.getName().endsWith(".jtl"))
+                stamps.put(path + file.getName(), file.lastModified() + ":" + file.length());
+    }
+
+    private Map<String, byte[]> compile(Map<String, String> sources, String classpath) throws IOException, InvalidWebsiteException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new InvalidWebsiteException("no Java compiler available to compile templates, is this running on a JRE?");
+
+        List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, String> source : sources.entrySet())
+            units.add(new SourceFile(source.getKey(), source.getValue()));
+        List<String> options = Arrays.asList("-classpath", classpath, "-nowarn");
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        final Map<String, ByteArrayOutputStream> output = new HashMap<String, ByteArrayOutputStream>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(compiler.getStandardFileManager(diagnostics, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                        output.put(className, stream);
+                        return stream;
+                    }
+                };
+            }
+        };
+        try {
+            if (!compiler.getTask(null, fileManager, diagnostics, options, null, units).call()) {
+                StringBuilder message = new StringBuilder("templates didn't compile");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                    message.append('\n').append(diagnostic);
+                throw new InvalidWebsiteException(message.toString());
+            }
+        } finally {
+            fileManager.close();
+        }
+
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : output.entrySet())
+            classes.put(entry.getKey(), entry.getValue().toByteArray());
+        return classes;
+    }
+
+    /**
+     * Return a classpath with everything the class loader and its parents can see, as far as it
+     * can be found out.
+     */
+    private static String classpath(ClassLoader loader) {
+        Set<String> elements = new LinkedHashSet<String>();
+        for (; loader != null; loader = loader.getParent())
+            if (loader instanceof URLClassLoader)
+                for (URL url : ((URLClassLoader) loader).getURLs())
+                    if (url.getProtocol().equals("file"))
+                        try {
+                            elements.add(new File(url.toURI()).getPath());
+                        } catch (URISyntaxException ex) {
+                            // javac couldn't use it anyway
+                        }
+        elements.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+
+        StringBuilder classpath = new StringBuilder();
+        for (String element : elements) {
+            if (classpath.length() != 0)
+                classpath.append(File.pathSeparatorChar);
+            classpath.append(element);
+        }
+        return classpath.toString();
+    }
+
+    /**
+     * Read the classes of a template from its cache directory, and return whether they were there.
+     * A directory without the template's class in it doesn't count, and nothing is read from it.
+     */
+    private static boolean readCache(File directory, String className, Map<String, byte[]> classes) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null || !new File(directory, className + ".class").isFile())
+            return false;
+        Map<String, byte[]> cached = new HashMap<String, byte[]>();
+        for (File file : files)
+            if (file.getName().endsWith(".class"))
+                cached.put(file.getName().substring(0, file.getName().length() - ".class".length()), readFile(file));
+        classes.putAll(cached);
+        return true;
+    }
+
+    /**
+     * Write the classes of a template to its cache directory. The classes are written somewhere
+     * else and then moved into place, so that a half-written directory is never read. If they
+     * can't all be written, nothing is cached.
+     */
+    private static void writeCache(File directory, String className, Map<String, byte[]> classes) {
+        File temp = new File(directory.getPath() + ".tmp" + System.nanoTime());
+        if (!temp.mkdirs())
+            return; // the cache is only an optimization
+        try {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet())
+                if (entry.getKey().equals(className) || entry.getKey().startsWith(className + "$")) {
+                    OutputStream out = new FileOutputStream(new File(temp, entry.getKey() + ".class"));
+                    try {
+                        out.write(entry.getValue());
+                    } finally {
+                        out.close();
+                    }
+                }
+        } catch (IOException ex) {
+            // nothing is lost but time
+            deleteDirectory(temp);
+            return;
+        }
+        if (directory.exists())
+            deleteDirectory(directory); // it's broken, or readCache would have used it
+        if (!temp.renameTo(directory))
+            deleteDirectory(temp); // most likely another loader cached the same template first
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Return a fingerprint of the classpath: the path, size and modification time of every JAR on
+     * it, and of every file in its directories.
+     */
+    private static byte[] fingerprint(String classpath) {
+        MessageDigest digest = sha1();
+        try {
+            for (String element : classpath.split(File.pathSeparator))
+                fingerprint(new File(element), digest);
+        } catch (UnsupportedEncodingException ex) {
+            throw new WTFException("no UTF-8!", ex);
+        }
+        return digest.digest();
+    }
+
+    private static void fingerprint(File file, MessageDigest digest) throws UnsupportedEncodingException {
+        File[] files = file.listFiles();
+        if (files != null) {
+            Arrays.sort(files); // so that the order doesn't depend on the file system
+            for (File child : files)
+                fingerprint(child, digest);
+        } else
+            digest.update((file.getPath() + ":" + file.length() + ":" + file.lastModified() + "\0").getBytes("UTF-8"));
+    }
+
+    private static String hash(byte[] fingerprint, String source) {
+        MessageDigest digest = sha1();
+        try {
+            // classes compiled by a newer compiler can't be loaded by an older JVM
+            digest.update((System.getProperty("java.specification.version") + "\0").getBytes("UTF-8"));
+            digest.update(fingerprint);
+            digest.update(source.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new WTFException("no UTF-8!", ex);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b & 0xff));
+        return hex.toString();
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new WTFException("no SHA-1!", ex);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                bytes.write(buffer, 0, count);
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads templates from the source directory, the same way the Maven plugin does.
+     */
+    private final class FileResolver implements TemplateResolver {
+        @Override
+        public Reader open(String path) throws IOException {
+            return new FileReader(new File(sourceDirectory, path.replace('/', File.separatorChar)));
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /**
+     * Loads compiled templates. Classes it has bytes for are defined here even if the parent has
+     * them too, so that a template loaded at runtime replaces the one compiled with the website.
+     */
+    private static final class TemplateClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        TemplateClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null)
+                return super.loadClass(name, resolve);
+            Class<?> klass = findLoadedClass(name);
+            if (klass == null)
+                klass = defineClass(name, bytes, 0, bytes.length);
+            if (resolve)
+                resolveClass(klass);
+            return klass;
+        }
+    }
+}
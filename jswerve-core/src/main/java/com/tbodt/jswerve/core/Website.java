@@ -21,6 +21,7 @@ import com.tbodt.jswerve.Controller;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -30,8 +31,24 @@ import java.util.zip.ZipFile;
  * @author Theodore Dubois
  */
 public class Website {
+    // how often the templates are checked for changes when they are being reloaded
+    private static final long TEMPLATE_CHECK_INTERVAL = 1000;
+    // what an action that renders nothing responds with
+    private static final Response NO_CONTENT = new Response(StatusCode.NO_CONTENT, Headers.EMPTY_HEADERS);
+
     private ClassLoader loader;
-    private RoutingTable routes;
+    private volatile RoutingTable routes;
+    private volatile List<TemplateInfo> templates;
+    private List<TemplateInfo> compiledTemplates;
+    private RoutesDefiner definer;
+    private Dispatcher dispatcher;
+    private volatile boolean recycleControllers;
+    private volatile long asyncTimeout = 30000;
+    private final FragmentCache fragmentCache = new FragmentCache(16 * 1024 * 1024);
+    private TemplateLoader templateLoader;
+    private volatile boolean reloadTemplates;
+    private volatile long nextTemplateCheck;
+    private volatile Exception templateFailure;
 
     /**
      * Construct a {@code Website} from a file. This file can be a directory or a JAR file.
@@ -97,30 +114,230 @@ public class Website {
     }
 
     private void init(Set<Class<?>> classes) throws InvalidWebsiteException {
-        this.routes = RoutingTable.extract(classes);
-        TemplateInfo.fillCache(classes);
+        // everything is built here and only replaced as a whole, so serving requests needs no locks
+        this.compiledTemplates = TemplateInfo.extract(classes);
+        this.templates = compiledTemplates;
+        this.dispatcher = findDispatcher(classes);
+        if (dispatcher != null)
+            definer = dispatcher.getRoutesDefiner();
+        else
+            definer = RoutingTable.findRoutesDefiner(classes);
+        // a dispatcher generated before the routes changed would call the wrong actions, so routing falls back to reflection
+        if (dispatcher != null && !Arrays.equals(dispatcher.getRoutes(), describe(definer.getRoutes())))
+            dispatcher = null;
+        this.routes = RoutingTable.create(definer, templates, dispatcher);
+    }
+
+    private static String[] describe(List<Route> routes) {
+        String[] descriptions = new String[routes.size()];
+        for (int i = 0; i < descriptions.length; i++)
+            descriptions[i] = routes.get(i).toString();
+        return descriptions;
+    }
+
+    private static Dispatcher findDispatcher(Set<Class<?>> classes) throws InvalidWebsiteException {
+        Class<?> dispatcherClass = null;
+        for (Class<?> klass : classes)
+            if (Dispatcher.class.isAssignableFrom(klass) && !klass.isInterface())
+                if (dispatcherClass == null)
+                    dispatcherClass = klass;
+                else
+                    throw new InvalidWebsiteException("more than one Dispatcher");
+
+        if (dispatcherClass == null)
+            return null;
+
+        try {
+            return (Dispatcher) dispatcherClass.newInstance();
+        } catch (InstantiationException ex) {
+            throw new InvalidWebsiteException("no no-arg constructor in Dispatcher");
+        } catch (IllegalAccessException ex) {
+            throw new InvalidWebsiteException("no public no-arg constructor in Dispatcher");
+        }
     }
 
     /**
-     * Service the request and return a response.
+     * Service the request and return a response. If the controller goes asynchronous, this waits
+     * for it to render the response, for as long as the {@linkplain #setAsyncTimeout(long) async
+     * timeout}.
      *
      * @param request the request
      * @return the response
+     * @throws StatusCodeException with {@link StatusCode#SERVICE_UNAVAILABLE} if the controller
+     * doesn't render the response in time
      */
     public Response service(Request request) {
+        Waiter waiter = new Waiter();
+        service(request, waiter);
+        return waiter.await(asyncTimeout);
+    }
+
+    /**
+     * Service the request and tell the listener about the response. If the controller doesn't go
+     * asynchronous, the listener is told before this returns; otherwise it is told by whatever
+     * thread the controller renders the response on. An action that renders nothing gets an empty
+     * 204 No Content response.
+     *
+     * @param request the request
+     * @param listener the listener
+     */
+    public void service(Request request, ResponseListener listener) {
+        Action action;
+        try {
+            action = route(request);
+        } catch (RuntimeException ex) {
+            listener.requestFailed(toFailure(ex));
+            return;
+        }
+        service(request, action, listener);
+    }
+
+    /**
+     * Find the action that services the request, without servicing it. This only looks at the
+     * request line and the headers, so it can be used to turn a request down before its body is
+     * read. The request is serviced by passing the action to
+     * {@link #service(Request, Action, ResponseListener)}.
+     *
+     * @param request the request
+     * @return the action that services the request
+     * @throws MethodNotAllowedException if routes match the path, but not the method
+     * @throws RoutingException if no route matches the path
+     */
+    public Action route(Request request) {
+        if (reloadTemplates) {
+            // only the first request after the interval is up takes the lock
+            if (System.currentTimeMillis() >= nextTemplateCheck)
+                reloadTemplatesIfModified();
+            // the old templates stay, but every request fails until the broken one is fixed
+            Exception failure = templateFailure;
+            if (failure != null)
+                throw new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, failure);
+        }
+        return routes.findAction(request);
+    }
+
+    /**
+     * Service a request that was already routed with {@link #route(Request)}, and tell the listener
+     * about the response like {@link #service(Request, ResponseListener)} does.
+     *
+     * @param request the request
+     * @param action the action that services the request
+     * @param listener the listener
+     */
+    public void service(Request request, Action action, ResponseListener listener) {
+        Controller controller;
         try {
-            Route route = routes.route(request);
-            ControllerInfo controllerInfo = ControllerInfo.get(route.getController());
-            Controller controller = controllerInfo.instantiate();
-            controller.setRequest(request);
-            controllerInfo.invoke(controller, route.getAction());
-            return controller.getResponse();
-        } catch (StatusCodeException ex) {
-            throw ex;
+            controller = invoke(action, request, fragmentCache);
         } catch (RuntimeException ex) {
-            ex.printStackTrace(System.err);
-            throw new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, ex);
+            listener.requestFailed(toFailure(ex));
+            return;
+        }
+        respond(controller, action, listener);
+    }
+
+    private static Controller invoke(Action action, Request request, FragmentCache fragmentCache) {
+        Controller controller = action.getControllerInfo().instantiate();
+        controller.setRequest(request);
+        controller.setTemplates(action.getControllerInfo());
+        controller.setFragmentCache(fragmentCache);
+        action.invoke(controller);
+        return controller;
+    }
+
+    private static StatusCodeException toFailure(RuntimeException ex) {
+        if (ex instanceof StatusCodeException)
+            return (StatusCodeException) ex;
+        // whoever gets the failure can log the cause
+        return new StatusCodeException(StatusCode.INTERNAL_SERVER_ERROR, ex);
+    }
+
+    private void respond(Controller controller, Action action, ResponseListener listener) {
+        if (controller.isAsync()) {
+            controller.setResponseListener(listener);
+            return;
         }
+        Response response = controller.getResponse();
+        StatusCodeException failure = controller.getFailure();
+        if (failure != null)
+            listener.requestFailed(failure);
+        else
+            // a template renders inside responseRendered, so the controller can't be recycled before
+            listener.responseRendered(response != null ? response : NO_CONTENT);
+        // a controller whose action threw is left for the garbage collector, in case it's in a weird state
+        if (recycleControllers)
+            action.getControllerInfo().release(controller);
+    }
+
+    /**
+     * Load templates at runtime with a {@link TemplateLoader}, on top of the ones that were compiled
+     * with the website. A template loaded at runtime replaces a compiled one with the same class
+     * name. If {@code reload} is true, the loader is asked whether the templates have changed at
+     * most once a second while requests are serviced, and they are loaded again if they have.
+     *
+     * @param templateLoader the template loader
+     * @param reload whether to reload the templates when they change
+     * @throws IOException if a template can't be read
+     * @throws InvalidWebsiteException if a template is invalid or doesn't compile
+     */
+    public synchronized void setTemplateLoader(TemplateLoader templateLoader, boolean reload) throws IOException, InvalidWebsiteException {
+        this.templateLoader = templateLoader;
+        loadTemplates();
+        this.reloadTemplates = reload;
+    }
+
+    private synchronized void reloadTemplatesIfModified() {
+        long now = System.currentTimeMillis();
+        if (now < nextTemplateCheck)
+            return; // another request checked while this one waited for the lock
+        nextTemplateCheck = now + TEMPLATE_CHECK_INTERVAL;
+        if (templateLoader.isModified())
+            try {
+                loadTemplates();
+                templateFailure = null;
+            } catch (IOException ex) {
+                templateFailure = ex;
+            } catch (InvalidWebsiteException ex) {
+                templateFailure = ex;
+            }
+    }
+
+    /**
+     * Load the templates, and build a new routing table that knows about them.
+     */
+    private void loadTemplates() throws IOException, InvalidWebsiteException {
+        Map<String, TemplateInfo> byClass = new LinkedHashMap<String, TemplateInfo>();
+        for (TemplateInfo template : compiledTemplates)
+            byClass.put(template.getTemplateClass().getName(), template);
+        for (TemplateInfo template : templateLoader.load())
+            byClass.put(template.getTemplateClass().getName(), template);
+        List<TemplateInfo> newTemplates = Collections.unmodifiableList(new ArrayList<TemplateInfo>(byClass.values()));
+
+        RoutingTable newRoutes = RoutingTable.create(definer, newTemplates, dispatcher);
+        RouteCache cache = routes.getCache();
+        newRoutes.setCacheSize(cache == null ? 0 : cache.getCapacity());
+        templates = newTemplates;
+        routes = newRoutes;
+    }
+
+    /**
+     * Set whether {@link Reusable} controllers are recycled after they service a request, instead
+     * of a new one being instantiated for every request. Asynchronous controllers are never
+     * recycled.
+     *
+     * @param recycleControllers whether to recycle reusable controllers
+     */
+    public void setRecycleControllers(boolean recycleControllers) {
+        this.recycleControllers = recycleControllers;
+    }
+
+    /**
+     * Set how long {@link #service(Request)} waits for an asynchronous controller to render the
+     * response, in milliseconds. If it is zero or less, it waits forever. The default is 30 seconds.
+     *
+     * @param asyncTimeout how long to wait, in milliseconds
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
     }
 
     /**
@@ -140,4 +357,78 @@ public class Website {
     public RoutingTable getRoutingTable() {
         return routes;
     }
+
+    /**
+     * Return the cache that the templates of this website cache fragments in. It holds 16 megabytes
+     * to begin with.
+     *
+     * @return the fragment cache
+     */
+    public FragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * Return the templates. The result is unmodifiable.
+     *
+     * @return the templates
+     */
+    public List<TemplateInfo> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Waits for the outcome of a request, for callers that want it synchronously.
+     */
+    private static final class Waiter implements ResponseListener {
+        private Response response;
+        private StatusCodeException failure;
+        private boolean done;
+
+        @Override
+        public synchronized void responseRendered(Response response) {
+            if (done)
+                return; // too late, the wait timed out
+            // render templates now, while the controller they came from hasn't been recycled yet
+            if (response.getBody().isProduced())
+                response.getBody().asByteBuffer();
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void requestFailed(StatusCodeException failure) {
+            if (done)
+                return;
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized Response await(long timeout) {
+            boolean interrupted = false;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!done)
+                try {
+                    if (timeout <= 0)
+                        wait();
+                    else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            done = true;
+                            failure = StatusCodeException.of(StatusCode.SERVICE_UNAVAILABLE);
+                        } else
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw failure;
+            return response;
+        }
+    }
 }
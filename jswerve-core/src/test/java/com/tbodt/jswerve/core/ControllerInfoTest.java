@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.*;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class ControllerInfoTest {
+    @Reusable
+    public static class ReusableController extends Controller {
+        private int resets;
+
+        public void index() {
+            renderText("index");
+        }
+
+        @Override
+        protected void reset() {
+            resets++;
+        }
+    }
+
+    public static class ReusableRoutes extends RoutesDefiner {
+        public ReusableRoutes() {
+            super(
+                    get("/").to(ReusableController.class, "index"),
+                    get("/other").to(RoutingTableTest.TestController.class, "index")
+            );
+        }
+    }
+
+    public static abstract class AbstractController extends Controller {
+        public void index() {
+        }
+    }
+
+    public static class AbstractRoutes extends RoutesDefiner {
+        public AbstractRoutes() {
+            super(
+                    get("/").to(AbstractController.class, "index")
+            );
+        }
+    }
+
+    public static class ThrowingController extends Controller {
+        public ThrowingController() throws Exception {
+            throw new Exception("checked");
+        }
+
+        public void index() {
+        }
+    }
+
+    public static class ThrowingRoutes extends RoutesDefiner {
+        public ThrowingRoutes() {
+            super(
+                    get("/").to(ThrowingController.class, "index")
+            );
+        }
+    }
+
+    private static Map<Class<? extends Controller>, ControllerInfo> controllers(RoutesDefiner definer) throws InvalidWebsiteException {
+        return ControllerInfo.extract(definer.getRoutes(), Collections.<TemplateInfo>emptyList());
+    }
+
+    @Test
+    public void testRecycle() throws InvalidWebsiteException {
+        ControllerInfo info = controllers(new ReusableRoutes()).get(ReusableController.class);
+        assertTrue(info.isReusable());
+        ReusableController controller = (ReusableController) info.instantiate();
+        controller.index();
+        info.release(controller);
+        assertNull(controller.getResponse());
+        assertEquals(1, controller.resets);
+        assertSame(controller, info.instantiate());
+        // the spare was taken, so the next one is new
+        assertNotSame(controller, info.instantiate());
+    }
+
+    @Test
+    public void testNotReusable() throws InvalidWebsiteException {
+        ControllerInfo info = controllers(new ReusableRoutes()).get(RoutingTableTest.TestController.class);
+        assertFalse(info.isReusable());
+        Controller controller = info.instantiate();
+        info.release(controller);
+        assertNotSame(controller, info.instantiate());
+    }
+
+    @Test
+    public void testConstructorThrows() throws InvalidWebsiteException {
+        ControllerInfo info = controllers(new ThrowingRoutes()).get(ThrowingController.class);
+        try {
+            info.instantiate();
+            fail("the constructor didn't throw");
+        } catch (StatusCodeException ex) {
+            // a checked exception from the constructor is wrapped, not thrown sneakily
+            assertEquals(StatusCode.INTERNAL_SERVER_ERROR, ex.getStatusCode());
+            assertEquals("checked", ex.getCause().getMessage());
+        }
+    }
+
+    @Test(expected = InvalidWebsiteException.class)
+    public void testAbstractController() throws InvalidWebsiteException {
+        controllers(new AbstractRoutes());
+    }
+}
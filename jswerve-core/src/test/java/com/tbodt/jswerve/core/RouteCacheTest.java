@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.*;
+import java.net.URI;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class RouteCacheTest {
+    private static Request request(HttpMethod method, String path) {
+        return new Request(method, URI.create(path), Headers.EMPTY_HEADERS, Content.EMPTY);
+    }
+
+    @Test
+    public void testSameResultsAsUncached() throws InvalidWebsiteException {
+        Set<Class<?>> classes = Collections.<Class<?>>singleton(RoutingTableTest.TestRoutes.class);
+        RoutingTable uncached = RoutingTable.extract(classes);
+        RoutingTable cached = RoutingTable.extract(classes);
+        cached.setCacheSize(2);
+
+        String[] paths = {"/", "/users/new", "/users/42", "/posts/edit", "/files/a/b", "/users/42", "/", "/users/43"};
+        for (int round = 0; round < 2; round++)
+            for (String path : paths)
+                for (HttpMethod method : EnumSet.of(HttpMethod.GET, HttpMethod.POST)) {
+                    Request expected = request(method, path);
+                    Request actual = request(method, path);
+                    String expectedAction, actualAction;
+                    try {
+                        expectedAction = uncached.route(expected).getAction();
+                    } catch (RoutingException ex) {
+                        expectedAction = null;
+                    }
+                    try {
+                        actualAction = cached.route(actual).getAction();
+                    } catch (RoutingException ex) {
+                        actualAction = null;
+                    }
+                    assertEquals(method + " " + path, expectedAction, actualAction);
+                    assertEquals(method + " " + path, expected.getPathParameters(), actual.getPathParameters());
+                }
+        assertEquals(2, cached.getCache().getSize());
+
+        long hits = cached.getCache().getHits();
+        cached.route(request(HttpMethod.GET, "/users/44"));
+        Request request = request(HttpMethod.GET, "/users/44");
+        assertEquals("showUser", cached.route(request).getAction());
+        assertEquals(Collections.singletonMap("id", "44"), request.getPathParameters());
+        assertEquals(hits + 1, cached.getCache().getHits());
+    }
+
+    @Test
+    public void testClockEviction() {
+        RouteCache cache = new RouteCache(2);
+        cache.put(HttpMethod.GET, "/a", null, null);
+        cache.put(HttpMethod.GET, "/b", null, null);
+        assertNotNull(cache.get(HttpMethod.GET, "/a"));
+        // /b hasn't been used since it was put in, so it goes first
+        cache.put(HttpMethod.GET, "/c", null, null);
+        assertNotNull(cache.get(HttpMethod.GET, "/a"));
+        assertNull(cache.get(HttpMethod.GET, "/b"));
+        assertNotNull(cache.get(HttpMethod.GET, "/c"));
+        assertNull(cache.get(HttpMethod.POST, "/a"));
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getSize());
+    }
+}
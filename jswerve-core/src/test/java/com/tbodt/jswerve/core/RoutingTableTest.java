@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class RoutingTableTest {
+    public static class TestController extends Controller {
+        public void index() {
+            renderText("index");
+        }
+
+        public void newUser() {
+        }
+
+        public void showUser() {
+            renderText("user " + getParam("id"));
+        }
+
+        public void updateUser() {
+        }
+
+        public void editPage() {
+        }
+
+        public void editPosts() {
+        }
+
+        public void file() {
+        }
+    }
+
+    public static class TestRoutes extends RoutesDefiner {
+        public TestRoutes() {
+            super(
+                    get("/").to(TestController.class, "index"),
+                    get("/users/new").to(TestController.class, "newUser"),
+                    get("/users/:id").to(TestController.class, "showUser"),
+                    post("/users/:id").to(TestController.class, "updateUser"),
+                    get("/:page/edit").to(TestController.class, "editPage"),
+                    get("/posts/edit").to(TestController.class, "editPosts"),
+                    get("/files/:/:name").to(TestController.class, "file")
+            );
+        }
+    }
+
+    public static class TestTemplate extends AbstractTemplate {
+        @Override
+        public void render(TemplateOutput out) throws java.io.IOException {
+            out.append("template");
+        }
+    }
+
+    public static class BrokenRoutes extends RoutesDefiner {
+        public BrokenRoutes() {
+            super(
+                    get("/").to(TestController.class, "doesNotExist")
+            );
+        }
+    }
+
+    private RoutingTable table;
+
+    @Before
+    public void setUp() throws InvalidWebsiteException {
+        table = RoutingTable.extract(Collections.<Class<?>>singleton(TestRoutes.class));
+    }
+
+    private static Request request(HttpMethod method, String path) {
+        return new Request(method, URI.create(path), Headers.EMPTY_HEADERS, Content.EMPTY);
+    }
+
+    @Test
+    public void testStaticRoutes() {
+        assertEquals("index", table.route(request(HttpMethod.GET, "/")).getAction());
+        assertEquals("newUser", table.route(request(HttpMethod.GET, "/users/new")).getAction());
+        assertEquals("newUser", table.route(request(HttpMethod.GET, "/users//new/")).getAction());
+    }
+
+    @Test
+    public void testStaticRoutesDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        Request request = request(HttpMethod.GET, "/users/new");
+        request.getUri().getPath(); // the URI decodes the path lazily
+        for (int i = 0; i < 20000; i++)
+            table.route(request);
+
+        // measuring allocates a little bit by itself
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        int lookups = 10000;
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < lookups; i++)
+            table.route(request);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        assertEquals("bytes allocated per lookup", 0, allocated / lookups);
+    }
+
+    @Test
+    public void testParameters() {
+        Request request = request(HttpMethod.GET, "/users/42");
+        assertEquals("showUser", table.route(request).getAction());
+        assertEquals(Collections.singletonMap("id", "42"), request.getPathParameters());
+
+        request = request(HttpMethod.GET, "/files/some/thing");
+        assertEquals("file", table.route(request).getAction());
+        assertEquals(Collections.singletonMap("name", "thing"), request.getPathParameters());
+    }
+
+    @Test
+    public void testDeclarationOrder() {
+        // the wildcard route was declared before the static one, so it wins
+        Request request = request(HttpMethod.GET, "/posts/edit");
+        assertEquals("editPage", table.route(request).getAction());
+        assertEquals(Collections.singletonMap("page", "posts"), request.getPathParameters());
+    }
+
+    @Test
+    public void testMethods() {
+        assertEquals("updateUser", table.route(request(HttpMethod.POST, "/users/42")).getAction());
+        // /users/new only has a GET route, so this falls through to the wildcard
+        assertEquals("updateUser", table.route(request(HttpMethod.POST, "/users/new")).getAction());
+    }
+
+    @Test
+    public void testMethodNotAllowed() {
+        try {
+            table.route(request(HttpMethod.DELETE, "/users/42"));
+            fail("DELETE /users/42 was routed");
+        } catch (MethodNotAllowedException ex) {
+            assertEquals(StatusCode.METHOD_NOT_ALLOWED, ex.getStatusCode());
+            assertEquals("GET,POST", ex.getAllow());
+        }
+    }
+
+    @Test
+    public void testAllowHeader() {
+        assertEquals("GET", table.getAllowHeader("/"));
+        assertEquals("GET", table.getAllowHeader("/posts/edit"));
+        // matches both /users/new and /users/:id
+        assertEquals("GET,POST", table.getAllowHeader("/users/new"));
+        assertNull(table.getAllowHeader("/not/a/route/at/all"));
+        // built ahead of time, not for every request
+        assertSame(table.getAllowHeader("/users/new"), table.getAllowHeader("/users/new"));
+
+        // the same as scanning every route
+        String[] components = {"users", "new", "posts", "edit", "files", "42", "x"};
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder path = new StringBuilder();
+            int length = random.nextInt(4);
+            for (int j = 0; j < length; j++)
+                path.append('/').append(components[random.nextInt(components.length)]);
+            if (path.length() == 0)
+                path.append('/');
+            EnumSet<HttpMethod> methods = EnumSet.noneOf(HttpMethod.class);
+            for (Route route : table.getRoutes())
+                if (route.matchesPath(path.toString()))
+                    methods.addAll(route.getMethods());
+            String expected = methods.isEmpty() ? null : methods.toString().replaceAll("[\\[\\] ]", "");
+            assertEquals(path.toString(), expected, table.getAllowHeader(path.toString()));
+        }
+    }
+
+    @Test
+    public void testNotFoundIsNotMethodNotAllowed() {
+        try {
+            table.route(request(HttpMethod.DELETE, "/not/a/route/at/all"));
+            fail("DELETE /not/a/route/at/all was routed");
+        } catch (RoutingException ex) {
+            assertFalse(ex instanceof MethodNotAllowedException);
+            assertEquals(StatusCode.NOT_FOUND, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testActions() {
+        Request request = request(HttpMethod.GET, "/users/42");
+        Action action = table.findAction(request);
+        assertEquals(TestController.class, action.getControllerInfo().getControllerClass());
+        Controller controller = action.getControllerInfo().instantiate();
+        controller.setRequest(request);
+        action.invoke(controller);
+        assertArrayEquals("user 42".getBytes(), controller.getResponse().getBody().getData());
+    }
+
+    @Test
+    public void testRegistries() throws InvalidWebsiteException {
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+        classes.add(TestRoutes.class);
+        classes.add(TestTemplate.class);
+        RoutingTable withTemplates = RoutingTable.extract(classes);
+        ControllerInfo controller = withTemplates.getControllers().get(TestController.class);
+        assertEquals(Collections.singleton("TestTemplate"), controller.getTemplates().keySet());
+        assertSame(controller, withTemplates.findAction(request(HttpMethod.GET, "/")).getControllerInfo());
+
+        // a different website doesn't see the templates of the first one
+        assertTrue(table.getControllers().get(TestController.class).getTemplates().isEmpty());
+    }
+
+    @Test(expected = InvalidWebsiteException.class)
+    public void testMissingAction() throws InvalidWebsiteException {
+        RoutingTable.extract(Collections.<Class<?>>singleton(BrokenRoutes.class));
+    }
+
+    @Test(expected = RoutingException.class)
+    public void testNoMatch() {
+        table.route(request(HttpMethod.GET, "/users/42/extra"));
+    }
+
+    @Test(expected = RoutingException.class)
+    public void testTooShort() {
+        table.route(request(HttpMethod.GET, "/files/some"));
+    }
+}
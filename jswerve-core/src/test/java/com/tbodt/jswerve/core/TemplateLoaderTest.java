@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.AbstractTemplate;
+import com.tbodt.jswerve.FragmentCache;
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class TemplateLoaderTest {
+    private File root;
+    private File sources;
+    private File cache;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("templates", "");
+        root.delete();
+        sources = new File(root, "src");
+        cache = new File(root, "cache");
+        new File(sources, "com/example").mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+
+    private void write(String path, String jtl) throws IOException {
+        Writer writer = new FileWriter(new File(sources, path));
+        try {
+            writer.write(jtl);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static TemplateInfo find(List<TemplateInfo> templates, String name) {
+        for (TemplateInfo template : templates)
+            if (template.getName().equals(name))
+                return template;
+        return null;
+    }
+
+    @Test
+    public void testLoad() throws IOException, InvalidWebsiteException {
+        write("com/example/_layout.html.jtl", "[<@ content @>]");
+        write("com/example/page.html.jtl", "<@ extends _layout.html.jtl @><{ for (int i = 0; i < 3; i++) { }><+ i +><{ } }>");
+        TemplateLoader loader = new TemplateLoader(sources, cache, getClass().getClassLoader());
+        List<TemplateInfo> templates = loader.load();
+        assertEquals(1, templates.size());
+        assertEquals("com.example.page_html", templates.get(0).getTemplateClass().getName());
+        assertEquals("[012]", templates.get(0).render());
+        assertEquals(1, loader.getCompiled());
+        assertFalse(loader.isModified());
+
+        // a new loader, like after a restart, gets the template out of the cache
+        loader = new TemplateLoader(sources, cache, getClass().getClassLoader());
+        assertEquals("[012]", find(loader.load(), "page_html").render());
+        assertEquals(0, loader.getCompiled());
+
+        // changing the layout changes the page
+        write("com/example/_layout.html.jtl", "{{<@ content @>}}");
+        assertTrue(loader.isModified());
+        assertEquals("{{012}}", find(loader.load(), "page_html").render());
+        assertEquals(1, loader.getCompiled());
+    }
+
+    @Test
+    public void testCacheInvalidation() throws IOException, InvalidWebsiteException {
+        write("com/example/page.html.jtl", "page");
+        new TemplateLoader(sources, cache, getClass().getClassLoader()).load();
+
+        // a cache directory with nothing in it, like one left behind by a crash, isn't used
+        for (File directory : cache.listFiles())
+            for (File file : directory.listFiles())
+                assertTrue(file.delete());
+        TemplateLoader loader = new TemplateLoader(sources, cache, getClass().getClassLoader());
+        assertEquals("page", loader.load().get(0).render());
+        assertEquals(1, loader.getCompiled());
+
+        // a website with different classes doesn't get templates compiled against the old ones
+        File classes = new File(root, "classes");
+        classes.mkdirs();
+        Writer writer = new FileWriter(new File(classes, "Model.class"));
+        writer.write("not really a class");
+        writer.close();
+        ClassLoader website = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+        loader = new TemplateLoader(sources, cache, website);
+        loader.load();
+        assertEquals(1, loader.getCompiled());
+        loader.load();
+        assertEquals(0, loader.getCompiled());
+        writer = new FileWriter(new File(classes, "Model.class"));
+        writer.write("a different class");
+        writer.close();
+        // the classpath is only looked at once per loader, so it takes a redeploy to notice
+        loader.load();
+        assertEquals(0, loader.getCompiled());
+        loader = new TemplateLoader(sources, cache, website);
+        loader.load();
+        assertEquals(1, loader.getCompiled());
+    }
+
+    private static int counter;
+
+    public static int next() {
+        return counter++;
+    }
+
+    @Test
+    public void testFragmentCache() throws IOException, InvalidWebsiteException {
+        write("com/example/counter.html.jtl", "<@ cache \"counter\" @><b><+ com.tbodt.jswerve.core.TemplateLoaderTest.next() +></b><@ endcache @>!");
+        AbstractTemplate template = (AbstractTemplate) new TemplateLoader(sources, cache, getClass().getClassLoader()).load().get(0).newInstance();
+        FragmentCache fragments = new FragmentCache(1024);
+        String first = template.render(fragments);
+        assertTrue(first.matches("<b>\\d+</b>!"));
+        assertEquals(first, template.render(fragments));
+        // without a cache, or with another one, the fragment is rendered again
+        assertFalse(first.equals(template.render()));
+        assertFalse(first.equals(template.render(new FragmentCache(1024))));
+        assertEquals(1, fragments.invalidate("counter"));
+        assertFalse(first.equals(template.render(fragments)));
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        write("com/example/broken.html.jtl", "<+ nonexistent +>");
+        TemplateLoader loader = new TemplateLoader(sources, cache, getClass().getClassLoader());
+        try {
+            loader.load();
+            fail();
+        } catch (InvalidWebsiteException ex) {
+            assertTrue(ex.getMessage().contains("nonexistent"));
+        }
+        assertFalse(loader.isModified());
+
+        write("com/example/broken.html.jtl", "<+ unclosed");
+        try {
+            loader.load();
+            fail();
+        } catch (InvalidWebsiteException ex) {
+            assertTrue(ex.getMessage().startsWith("com/example/broken.html.jtl: "));
+        }
+    }
+}
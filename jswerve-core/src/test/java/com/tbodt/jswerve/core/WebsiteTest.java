@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.core;
+
+import com.tbodt.jswerve.*;
+import com.tbodt.jswerve.util.PathUtils;
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class WebsiteTest {
+    public static class AsyncController extends Controller {
+        public void later() {
+            async();
+            new Thread() {
+                @Override
+                public void run() {
+                    renderText("later");
+                }
+            }.start();
+        }
+
+        public void broken() {
+            async();
+            fail(new StatusCodeException(StatusCode.BAD_GATEWAY));
+        }
+
+        public void never() {
+            async();
+        }
+
+        public void now() {
+            renderText("now");
+        }
+
+        public void template() {
+            renderTemplate(new RoutingTableTest.TestTemplate());
+        }
+
+        public void nothing() {
+        }
+
+        public void failed() {
+            fail(new StatusCodeException(StatusCode.BAD_GATEWAY));
+        }
+    }
+
+    public static class AsyncRoutes extends RoutesDefiner {
+        public AsyncRoutes() {
+            super(
+                    get("/later").to(AsyncController.class, "later"),
+                    get("/broken").to(AsyncController.class, "broken"),
+                    get("/now").to(AsyncController.class, "now"),
+                    get("/template").to(AsyncController.class, "template"),
+                    get("/never").to(AsyncController.class, "never"),
+                    get("/nothing").to(AsyncController.class, "nothing"),
+                    get("/failed").to(AsyncController.class, "failed")
+            );
+        }
+    }
+
+    @Reusable
+    public static class GreetingController extends Controller {
+        private String name;
+
+        public void greet() {
+            name = "world";
+            renderTemplate(new Template() {
+                @Override
+                public String render() {
+                    return "hello " + name;
+                }
+            });
+        }
+
+        @Override
+        protected void reset() {
+            name = null;
+        }
+    }
+
+    public static class GreetingRoutes extends RoutesDefiner {
+        public GreetingRoutes() {
+            super(
+                    get("/greet").to(GreetingController.class, "greet")
+            );
+        }
+    }
+
+    public static class PageController extends Controller {
+        public void page() {
+            renderTemplate("page.html", "world");
+        }
+
+        public void missing() {
+            renderTemplate("missing.html");
+        }
+    }
+
+    public static class PageRoutes extends RoutesDefiner {
+        public PageRoutes() {
+            super(
+                    get("/page").to(PageController.class, "page"),
+                    get("/missing").to(PageController.class, "missing")
+            );
+        }
+    }
+
+    private Website website;
+
+    @Before
+    public void setUp() throws InvalidWebsiteException {
+        website = new Website(Collections.<Class<?>>singleton(AsyncRoutes.class));
+    }
+
+    private static Request request(String path) {
+        return new Request(HttpMethod.GET, URI.create(path), Headers.EMPTY_HEADERS, Content.EMPTY);
+    }
+
+    @Test
+    public void testSynchronous() {
+        assertArrayEquals("now".getBytes(), website.service(request("/now")).getBody().getData());
+    }
+
+    @Test
+    public void testTemplate() throws IOException {
+        Response response = website.service(request("/template"));
+        assertEquals("text/html", response.getHeaders().get("Content-Type"));
+        assertTrue(response.getBody().isProduced());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        assertEquals("template", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testRecycledAfterRendering() throws IOException, InvalidWebsiteException {
+        Website recycling = new Website(Collections.<Class<?>>singleton(GreetingRoutes.class));
+        recycling.setRecycleControllers(true);
+        for (int i = 0; i < 2; i++)
+            assertArrayEquals("hello world".getBytes(), recycling.service(request("/greet")).getBody().getData());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recycling.service(request("/greet"), new ResponseListener() {
+            @Override
+            public void responseRendered(Response response) {
+                try {
+                    response.getBody().writeTo(out);
+                } catch (IOException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+
+            @Override
+            public void requestFailed(StatusCodeException failure) {
+                fail("the request failed");
+            }
+        });
+        assertEquals("hello world", out.toString("UTF-8"));
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testReloadedTemplate() throws IOException, InvalidWebsiteException, InterruptedException {
+        File root = File.createTempFile("templates", "");
+        root.delete();
+        File sources = new File(root, "src");
+        File template = new File(sources, "com/tbodt/jswerve/core/page.html.jtl");
+        template.getParentFile().mkdirs();
+        try {
+            write(template, "<@ params String name @>hello <+ name +>");
+            Website templated = new Website(Collections.<Class<?>>singleton(PageRoutes.class));
+            templated.setTemplateLoader(new TemplateLoader(sources, new File(root, "cache"), getClass().getClassLoader()), true);
+            assertArrayEquals("hello world".getBytes(), templated.service(request("/page")).getBody().getData());
+
+            // the controller renders the template that was loaded again, not the one it was built with
+            write(template, "<@ params String name @>goodbye <+ name +>");
+            Thread.sleep(1100); // templates are checked for changes at most once a second
+            assertArrayEquals("goodbye world".getBytes(), templated.service(request("/page")).getBody().getData());
+
+            try {
+                templated.service(request("/missing"));
+                fail("a missing template was rendered");
+            } catch (StatusCodeException ex) {
+                assertEquals(StatusCode.INTERNAL_SERVER_ERROR, ex.getStatusCode());
+            }
+        } finally {
+            TemplateLoaderTest.delete(root);
+        }
+    }
+
+    @Test
+    public void testRouteFirst() {
+        Request request = request("/now");
+        Action action = website.route(request);
+        assertEquals("now", action.getRoute().getAction());
+        final List<Response> responses = new ArrayList<Response>();
+        website.service(request, action, new ResponseListener() {
+            @Override
+            public void responseRendered(Response response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void requestFailed(StatusCodeException failure) {
+                fail("the request failed");
+            }
+        });
+        assertArrayEquals("now".getBytes(), responses.get(0).getBody().getData());
+
+        try {
+            website.route(request("/nowhere"));
+            fail("nowhere was routed");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.NOT_FOUND, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testAsynchronous() {
+        assertArrayEquals("later".getBytes(), website.service(request("/later")).getBody().getData());
+    }
+
+    @Test
+    public void testAsynchronousTimeout() {
+        website.setAsyncTimeout(50);
+        try {
+            website.service(request("/never"));
+            fail("/never was serviced");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.SERVICE_UNAVAILABLE, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testAsynchronousFailure() {
+        final List<StatusCodeException> failures = new ArrayList<StatusCodeException>();
+        website.service(request("/broken"), new ResponseListener() {
+            @Override
+            public void responseRendered(Response response) {
+                fail("the request was supposed to fail");
+            }
+
+            @Override
+            public void requestFailed(StatusCodeException failure) {
+                failures.add(failure);
+            }
+        });
+        assertEquals(1, failures.size());
+        assertEquals(StatusCode.BAD_GATEWAY, failures.get(0).getStatusCode());
+    }
+
+    @Test
+    public void testNothingRendered() {
+        Response response = website.service(request("/nothing"));
+        assertEquals(StatusCode.NO_CONTENT, response.getStatus());
+        assertEquals(0, response.getBody().getData().length);
+    }
+
+    @Test
+    public void testSynchronousFailure() {
+        try {
+            website.service(request("/failed"));
+            fail("/failed was serviced");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.BAD_GATEWAY, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testNotFound() {
+        try {
+            website.service(request("/nowhere"));
+            fail("/nowhere was serviced");
+        } catch (StatusCodeException ex) {
+            assertEquals(StatusCode.NOT_FOUND, ex.getStatusCode());
+        }
+    }
+
+    /**
+     * Written the way the Maven plugin would generate it, but it counts the actions it calls.
+     */
+    public static class CountingDispatcher implements Dispatcher {
+        private static final String[] ACTIONS = {"later", "broken", "now", "template", "never", "nothing", "failed"};
+        static int routed;
+        static int instantiated;
+        static int invoked;
+
+        @Override
+        public RoutesDefiner getRoutesDefiner() {
+            return new AsyncRoutes();
+        }
+
+        @Override
+        public String[] getRoutes() {
+            String[] routes = new String[ACTIONS.length];
+            for (int i = 0; i < routes.length; i++)
+                routes[i] = "GET /" + ACTIONS[i] + " " + AsyncController.class.getName() + "#" + ACTIONS[i];
+            return routes;
+        }
+
+        @Override
+        public int route(HttpMethod method, String path) {
+            routed++;
+            int start = PathUtils.componentStart(path, 0);
+            int end = PathUtils.componentEnd(path, start);
+            if (method == HttpMethod.GET && start != end && PathUtils.componentStart(path, end) == path.length())
+                for (int i = 0; i < ACTIONS.length; i++)
+                    if (PathUtils.componentEquals(path, start, end, ACTIONS[i]))
+                        return i;
+            return -1;
+        }
+
+        @Override
+        public Controller instantiate(int route) {
+            instantiated++;
+            switch (route) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                case 4:
+                case 5:
+                case 6:
+                    return new AsyncController();
+            }
+            throw new IllegalArgumentException("no route " + route);
+        }
+
+        @Override
+        public void invoke(int route, Controller controller) {
+            invoked++;
+            switch (route) {
+                case 2:
+                    ((AsyncController) controller).now();
+                    return;
+            }
+            throw new IllegalArgumentException("no route " + route);
+        }
+    }
+
+    @Test
+    public void testDispatcherInvokes() throws InvalidWebsiteException {
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+        classes.add(AsyncRoutes.class);
+        classes.add(CountingDispatcher.class);
+        Website dispatched = new Website(classes);
+        dispatched.getRoutingTable().setCacheSize(16);
+        CountingDispatcher.routed = 0;
+        CountingDispatcher.instantiated = 0;
+        CountingDispatcher.invoked = 0;
+
+        // with a body or without, a request is routed by the dispatcher through the route cache, and called by the dispatcher
+        assertArrayEquals("now".getBytes(), dispatched.service(request("/now")).getBody().getData());
+        Request withBody = new Request(HttpMethod.GET, URI.create("/now"), Headers.EMPTY_HEADERS, new Content("body".getBytes(), "text/plain"));
+        Waiter waiter = new Waiter();
+        dispatched.service(withBody, dispatched.route(withBody), waiter);
+        assertArrayEquals("now".getBytes(), waiter.response.getBody().getData());
+        assertEquals(1, CountingDispatcher.routed);
+        assertEquals(2, CountingDispatcher.instantiated);
+        assertEquals(2, CountingDispatcher.invoked);
+        assertEquals(1, dispatched.getRoutingTable().getCache().getMisses());
+        assertEquals(1, dispatched.getRoutingTable().getCache().getHits());
+
+        // a path no route matches still gets a 405 or a 404
+        try {
+            dispatched.route(new Request(HttpMethod.POST, URI.create("/now"), Headers.EMPTY_HEADERS, Content.EMPTY));
+            fail("POST /now was routed");
+        } catch (MethodNotAllowedException ex) {
+            assertEquals("GET", ex.getAllow());
+        }
+        try {
+            dispatched.route(request("/nowhere"));
+            fail("/nowhere was routed");
+        } catch (RoutingException ex) {
+            assertFalse(ex instanceof MethodNotAllowedException);
+        }
+    }
+
+    /**
+     * A dispatcher generated before the last route was added.
+     */
+    public static class StaleDispatcher extends CountingDispatcher {
+        @Override
+        public String[] getRoutes() {
+            String[] routes = super.getRoutes();
+            return Arrays.copyOf(routes, routes.length - 1);
+        }
+    }
+
+    @Test
+    public void testStaleDispatcher() throws InvalidWebsiteException {
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+        classes.add(AsyncRoutes.class);
+        classes.add(StaleDispatcher.class);
+        Website dispatched = new Website(classes);
+        CountingDispatcher.routed = 0;
+        CountingDispatcher.invoked = 0;
+
+        // the website works without it
+        assertArrayEquals("now".getBytes(), dispatched.service(request("/now")).getBody().getData());
+        assertEquals(0, CountingDispatcher.routed);
+        assertEquals(0, CountingDispatcher.invoked);
+    }
+
+    private static final class Waiter implements ResponseListener {
+        private Response response;
+
+        @Override
+        public void responseRendered(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public void requestFailed(StatusCodeException failure) {
+            throw failure;
+        }
+    }
+}
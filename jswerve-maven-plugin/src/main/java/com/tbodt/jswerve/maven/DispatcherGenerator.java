@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.maven;
+
+import java.lang.reflect.*;
+import java.util.*;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Generates the source of a dispatcher out of a {@code RoutesDefiner} class. The routes are read
+ * reflectively, because the {@code RoutesDefiner} was loaded by the project's class loader and not
+ * by the plugin's.
+ *
+ * The generated dispatcher routes a path by switching on the number of components in it, then on
+ * the hash of the first component, and then tries the routes that can still match in the order
+ * they were declared, comparing their static components without splitting the path up. It calls
+ * the action of a route by its index: it switches on the index, casts the controller to the route's
+ * controller class and calls the action directly. It also instantiates the controllers with
+ * {@code new}, which is faster than calling a constructor reflectively.
+ *
+ * @author Theodore Dubois
+ */
+final class DispatcherGenerator {
+    private static final String API = "com.tbodt.jswerve.";
+    private static final String PATH_UTILS = API + "util.PathUtils.";
+
+    private final Class<?> definerClass;
+    private final List<RouteDescription> routes = new ArrayList<RouteDescription>();
+
+    /**
+     * Read the routes of the {@code RoutesDefiner}.
+     *
+     * @param definerClass the {@code RoutesDefiner} class
+     * @throws GenerationException if the routes can't be read, or they can't be dispatched to
+     * directly
+     */
+    DispatcherGenerator(Class<?> definerClass) throws GenerationException {
+        this.definerClass = definerClass;
+        checkAccessible(definerClass, "RoutesDefiner");
+        Object definer;
+        try {
+            definer = definerClass.newInstance();
+        } catch (InstantiationException ex) {
+            throw new GenerationException("could not instantiate " + definerClass.getName(), ex);
+        } catch (IllegalAccessException ex) {
+            throw new GenerationException("no public no-arg constructor in " + definerClass.getName(), ex);
+        }
+        for (Object route : (List<?>) call(definer, "getRoutes"))
+            routes.add(new RouteDescription(route));
+    }
+
+    /**
+     * Return the fully qualified name of the dispatcher class.
+     *
+     * @return the fully qualified name of the dispatcher class
+     */
+    String getDispatcherName() {
+        return definerClass.getName() + "Dispatcher";
+    }
+
+    /**
+     * Return the source of the dispatcher class.
+     *
+     * @return the source of the dispatcher class
+     */
+    String generate() {
+        String name = getDispatcherName();
+        int lastDot = name.lastIndexOf('.');
+        StringBuilder out = new StringBuilder();
+        if (lastDot != -1)
+            out.append("package ").append(name.substring(0, lastDot)).append(";\n\n");
+        out.append("/**\n");
+        out.append(" * Generated by the JSwerve Maven plugin from ").append(definerClass.getName()).append(". Do not edit.\n");
+        out.append(" */\n");
+        out.append("public final class ").append(name.substring(lastDot + 1)).append(" implements " + API + "Dispatcher {\n");
+        out.append("    @Override\n");
+        out.append("    public " + API + "RoutesDefiner getRoutesDefiner() {\n");
+        out.append("        return new ").append(definerClass.getCanonicalName()).append("();\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    public String[] getRoutes() {\n");
+        out.append("        return new String[] {\n");
+        for (int i = 0; i < routes.size(); i++)
+            out.append("            \"").append(StringEscapeUtils.escapeJava(routes.get(i).description))
+                    .append(i == routes.size() - 1 ? "\"\n" : "\",\n");
+        out.append("        };\n");
+        out.append("    }\n\n");
+        generateRoute(out);
+        out.append("    @Override\n");
+        out.append("    public " + API + "Controller instantiate(int route) {\n");
+        out.append("        switch (route) {\n");
+        for (Map.Entry<Class<?>, List<Integer>> entry : routesByController().entrySet()) {
+            for (int i : entry.getValue())
+                out.append("            case ").append(i).append(":\n");
+            generateNew(entry.getKey(), "                ", out);
+        }
+        out.append("        }\n");
+        out.append("        throw new IllegalArgumentException(\"no route \" + route);\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    public void invoke(int route, " + API + "Controller controller) {\n");
+        out.append("        switch (route) {\n");
+        for (int i = 0; i < routes.size(); i++) {
+            RouteDescription route = routes.get(i);
+            out.append("            case ").append(i).append(":\n");
+            generateCall(route, "((" + route.controller.getCanonicalName() + ") controller)", "                ", out);
+            out.append("                return;\n");
+        }
+        out.append("        }\n");
+        out.append("        throw new IllegalArgumentException(\"no route \" + route);\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private void generateRoute(StringBuilder out) {
+        Map<Integer, List<Integer>> byLength = new TreeMap<Integer, List<Integer>>();
+        int maxLength = 0;
+        for (int i = 0; i < routes.size(); i++) {
+            int length = routes.get(i).pattern.length;
+            if (!byLength.containsKey(length))
+                byLength.put(length, new ArrayList<Integer>());
+            byLength.get(length).add(i);
+            maxLength = Math.max(maxLength, length);
+        }
+
+        out.append("    @Override\n");
+        out.append("    public int route(" + API + "HttpMethod method, String path) {\n");
+        // where every component starts and ends, as far as any route goes; past the end of the path they're all empty
+        for (int i = 0; i < maxLength; i++) {
+            out.append("        int s").append(i).append(" = " + PATH_UTILS + "componentStart(path, ").append(i == 0 ? "0" : "e" + (i - 1)).append(");\n");
+            out.append("        int e").append(i).append(" = " + PATH_UTILS + "componentEnd(path, s").append(i).append(");\n");
+        }
+        out.append("        switch (" + PATH_UTILS + "countComponents(path)) {\n");
+        for (Map.Entry<Integer, List<Integer>> entry : byLength.entrySet()) {
+            out.append("            case ").append(entry.getKey()).append(":\n");
+            generateLength(entry.getValue(), out);
+            out.append("                break;\n");
+        }
+        out.append("        }\n");
+        out.append("        return -1;\n");
+        out.append("    }\n\n");
+    }
+
+    /**
+     * Generate the matching of paths with as many components as the routes. Routes whose first
+     * component is static are only tried for paths whose first component has the same hash, and
+     * routes whose first component is a parameter are tried for every path, in between them in the
+     * order they were declared.
+     */
+    private void generateLength(List<Integer> indices, StringBuilder out) {
+        Map<Integer, List<Integer>> byHash = new TreeMap<Integer, List<Integer>>();
+        for (int i : indices) {
+            String[] pattern = routes.get(i).pattern;
+            if (pattern.length != 0 && !pattern[0].startsWith(":"))
+                byHash.put(pattern[0].hashCode(), new ArrayList<Integer>());
+        }
+        if (byHash.isEmpty()) {
+            for (int i : indices)
+                generateMatch(i, "                ", out);
+            return;
+        }
+
+        List<Integer> wildcards = new ArrayList<Integer>();
+        for (int i : indices) {
+            String[] pattern = routes.get(i).pattern;
+            if (pattern[0].startsWith(":")) {
+                wildcards.add(i);
+                for (List<Integer> hashIndices : byHash.values())
+                    hashIndices.add(i);
+            } else
+                byHash.get(pattern[0].hashCode()).add(i);
+        }
+        out.append("                switch (" + PATH_UTILS + "componentHash(path, s0, e0)) {\n");
+        for (Map.Entry<Integer, List<Integer>> entry : byHash.entrySet()) {
+            out.append("                    case ").append(entry.getKey()).append(":\n");
+            for (int i : entry.getValue())
+                generateMatch(i, "                        ", out);
+            out.append("                        break;\n");
+        }
+        out.append("                    default:\n");
+        for (int i : wildcards)
+            generateMatch(i, "                        ", out);
+        out.append("                }\n");
+    }
+
+    private void generateMatch(int index, String indent, StringBuilder out) {
+        RouteDescription route = routes.get(index);
+        if (route.methods.isEmpty())
+            return; // it never matches
+        List<String> conditions = new ArrayList<String>();
+        List<String> methodConditions = new ArrayList<String>();
+        for (String method : route.methods)
+            methodConditions.add("method == " + API + "HttpMethod." + method);
+        conditions.add(methodConditions.size() == 1 ? methodConditions.get(0) : "(" + StringUtils.join(methodConditions, " || ") + ")");
+        for (int i = 0; i < route.pattern.length; i++)
+            if (!route.pattern[i].startsWith(":"))
+                conditions.add(PATH_UTILS + "componentEquals(path, s" + i + ", e" + i + ", \""
+                        + StringEscapeUtils.escapeJava(route.pattern[i]) + "\")");
+        out.append(indent).append("if (").append(StringUtils.join(conditions, "\n" + indent + "        && ")).append(")\n");
+        out.append(indent).append("    return ").append(index).append(";\n");
+    }
+
+    private Map<Class<?>, List<Integer>> routesByController() {
+        Map<Class<?>, List<Integer>> routesByController = new LinkedHashMap<Class<?>, List<Integer>>();
+        for (int i = 0; i < routes.size(); i++) {
+            List<Integer> indices = routesByController.get(routes.get(i).controller);
+            if (indices == null)
+                routesByController.put(routes.get(i).controller, indices = new ArrayList<Integer>());
+            indices.add(i);
+        }
+        return routesByController;
+    }
+
+    private static void generateNew(Class<?> controller, String indent, StringBuilder out) {
+        String create = "return new " + controller.getCanonicalName() + "();\n";
+        boolean throwsChecked = false;
+        try {
+            for (Class<?> exception : controller.getConstructor().getExceptionTypes())
+                if (!RuntimeException.class.isAssignableFrom(exception) && !Error.class.isAssignableFrom(exception))
+                    throwsChecked = true;
+        } catch (NoSuchMethodException ex) {
+            throw new AssertionError(ex); // checkAccessible already checked for it
+        }
+        if (!throwsChecked)
+            out.append(indent).append(create);
+        else {
+            out.append(indent).append("try {\n");
+            out.append(indent).append("    ").append(create);
+            out.append(indent).append("} catch (RuntimeException ex) {\n");
+            out.append(indent).append("    throw ex;\n");
+            out.append(indent).append("} catch (Exception ex) {\n");
+            out.append(indent).append("    throw new " + API + "StatusCodeException(" + API + "StatusCode.INTERNAL_SERVER_ERROR, ex);\n");
+            out.append(indent).append("}\n");
+        }
+    }
+
+    private static void generateCall(RouteDescription route, String controller, String indent, StringBuilder out) {
+        if (route.action.getExceptionTypes().length == 0)
+            out.append(indent).append(controller).append('.').append(route.action.getName()).append("();\n");
+        else {
+            // the action declares checked exceptions, so they need to be wrapped like ControllerInfo does
+            out.append(indent).append("try {\n");
+            out.append(indent).append("    ").append(controller).append('.').append(route.action.getName()).append("();\n");
+            out.append(indent).append("} catch (RuntimeException ex) {\n");
+            out.append(indent).append("    throw ex;\n");
+            out.append(indent).append("} catch (Exception ex) {\n");
+            out.append(indent).append("    throw new " + API + "StatusCodeException(" + API + "StatusCode.INTERNAL_SERVER_ERROR, ex);\n");
+            out.append(indent).append("}\n");
+        }
+    }
+
+    private static Object call(Object object, String method) throws GenerationException {
+        try {
+            return object.getClass().getMethod(method).invoke(object);
+        } catch (NoSuchMethodException ex) {
+            throw new GenerationException("no method " + method + " in " + object.getClass().getName(), ex);
+        } catch (IllegalAccessException ex) {
+            throw new GenerationException("method " + method + " in " + object.getClass().getName() + " is not public", ex);
+        } catch (InvocationTargetException ex) {
+            throw new GenerationException(method + " threw an exception", ex.getCause());
+        }
+    }
+
+    private static void checkAccessible(Class<?> klass, String what) throws GenerationException {
+        if (!Modifier.isPublic(klass.getModifiers()) || klass.getCanonicalName() == null
+                || (klass.isMemberClass() && !Modifier.isStatic(klass.getModifiers())))
+            throw new GenerationException(what + " " + klass.getName() + " is not a public top-level or static nested class");
+        if (Modifier.isAbstract(klass.getModifiers()))
+            throw new GenerationException(what + " " + klass.getName() + " is abstract");
+        try {
+            klass.getConstructor();
+        } catch (NoSuchMethodException ex) {
+            throw new GenerationException("no public no-arg constructor in " + what + " " + klass.getName(), ex);
+        }
+    }
+
+    private static final class RouteDescription {
+        private final String[] pattern;
+        private final List<String> methods = new ArrayList<String>();
+        private final Class<?> controller;
+        private final Method action;
+        private final String description;
+
+        RouteDescription(Object route) throws GenerationException {
+            pattern = (String[]) call(route, "getPattern");
+            for (Object method : (Set<?>) call(route, "getMethods"))
+                methods.add(((Enum<?>) method).name());
+            // the website compares these with its routes, to tell whether the dispatcher is stale
+            description = (String) call(route, "toString");
+            controller = (Class<?>) call(route, "getController");
+            checkAccessible(controller, "controller");
+            String actionName = (String) call(route, "getAction");
+            try {
+                action = controller.getMethod(actionName);
+            } catch (NoSuchMethodException ex) {
+                throw new GenerationException("action " + actionName + " doesn't exist in " + controller.getName(), ex);
+            }
+            if (action.getReturnType() != void.class)
+                throw new GenerationException("action " + actionName + " in " + controller.getName() + " doesn't return void");
+        }
+    }
+
+    /**
+     * Thrown if a dispatcher can't be generated.
+     */
+    static final class GenerationException extends Exception {
+        GenerationException(String message) {
+            super(message);
+        }
+
+        GenerationException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
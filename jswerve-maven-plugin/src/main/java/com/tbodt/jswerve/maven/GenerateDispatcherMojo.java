@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.maven;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import javax.tools.*;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * A mojo that generates a dispatcher out of the website's {@code RoutesDefiner}. It runs after the
+ * classes are compiled, since it has to load the {@code RoutesDefiner} to find out the routes, and it
+ * compiles the dispatcher into the output directory itself. At runtime, the website uses the
+ * dispatcher instead of looking up routes in its routing table.
+ *
+ * @author Theodore Dubois
+ */
+@Mojo(name = "generate-dispatcher", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+      requiresDependencyResolution = ResolutionScope.COMPILE)
+public class GenerateDispatcherMojo extends AbstractMojo {
+    private static final String ROUTES_DEFINER = "com.tbodt.jswerve.RoutesDefiner";
+    private static final String COMPILER_PLUGIN = "org.apache.maven.plugins:maven-compiler-plugin";
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", readonly = true)
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/dispatcher", readonly = true)
+    private File outputDirectory;
+
+    // only used if the compiler plugin isn't configured, since that's what the compiler plugin does too
+    @Parameter(property = "maven.compiler.source")
+    private String source;
+
+    @Parameter(property = "maven.compiler.target")
+    private String target;
+
+    @Parameter(property = "project", readonly = true)
+    private MavenProject project;
+
+    /**
+     * Executes the mojo.
+     *
+     * @throws MojoExecutionException if something really bad happens
+     */
+    public void execute() throws MojoExecutionException {
+        List<String> classpath;
+        try {
+            classpath = project.getCompileClasspathElements();
+        } catch (DependencyResolutionRequiredException ex) {
+            throw new MojoExecutionException("dependencies weren't resolved", ex);
+        }
+
+        URLClassLoader loader = new URLClassLoader(toUrls(classpath), null);
+        Class<?> definerClass = findRoutesDefiner(loader);
+        if (definerClass == null) {
+            getLog().info("No RoutesDefiner found, not generating a dispatcher");
+            return;
+        }
+
+        DispatcherGenerator generator;
+        try {
+            generator = new DispatcherGenerator(definerClass);
+        } catch (DispatcherGenerator.GenerationException ex) {
+            // the website still works without a dispatcher, just slower
+            getLog().warn("Not generating a dispatcher: " + ex.getMessage());
+            return;
+        }
+
+        File sourceFile = new File(outputDirectory, generator.getDispatcherName().replace('.', File.separatorChar) + ".java");
+        getLog().debug(String.valueOf(sourceFile.getParentFile().mkdirs()));
+        Writer output = null;
+        try {
+            output = new OutputStreamWriter(new FileOutputStream(sourceFile), "UTF-8");
+            output.write(generator.generate());
+        } catch (IOException ioe) {
+            throw new MojoExecutionException("IOException!", ioe);
+        } finally {
+            if (output != null)
+                try {
+                    output.close();
+                } catch (IOException ex) {
+                    getLog().error(ex); // nothing else can be done
+                }
+        }
+
+        compile(sourceFile, classpath);
+    }
+
+    private Class<?> findRoutesDefiner(ClassLoader loader) throws MojoExecutionException {
+        Class<?> routesDefiner;
+        try {
+            routesDefiner = loader.loadClass(ROUTES_DEFINER);
+        } catch (ClassNotFoundException ex) {
+            throw new MojoExecutionException("the JSwerve API is not a dependency of the project", ex);
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(classesDirectory);
+        scanner.setIncludes(new String[] {"**/*.class"});
+        scanner.scan();
+
+        Class<?> definerClass = null;
+        for (String classPath : scanner.getIncludedFiles()) {
+            String className = StringUtils.removeEnd(classPath, ".class").replace(File.separatorChar, '.');
+            Class<?> klass;
+            try {
+                klass = loader.loadClass(className);
+            } catch (ClassNotFoundException ex) {
+                throw new MojoExecutionException("class " + className + " is in the output directory but can't be loaded", ex);
+            } catch (LinkageError ex) {
+                getLog().debug("couldn't load " + className, ex);
+                continue;
+            }
+            if (klass != routesDefiner && routesDefiner.isAssignableFrom(klass))
+                if (definerClass == null)
+                    definerClass = klass;
+                else
+                    throw new MojoExecutionException("more than one RoutesDefiner");
+        }
+        return definerClass;
+    }
+
+    private void compile(File sourceFile, List<String> classpath) throws MojoExecutionException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new MojoExecutionException("no Java compiler available, is Maven running on a JRE?");
+
+        List<String> options = new ArrayList<String>();
+        options.add("-classpath");
+        options.add(StringUtils.join(classpath, File.pathSeparator));
+        options.add("-d");
+        options.add(classesDirectory.getPath());
+        // the dispatcher is compiled for the same Java version as the rest of the project
+        String release = compilerSetting("release", null);
+        if (release != null) {
+            options.add("--release");
+            options.add(release);
+        } else {
+            String sourceLevel = compilerSetting("source", source);
+            if (sourceLevel != null) {
+                options.add("-source");
+                options.add(sourceLevel);
+            }
+            String targetLevel = compilerSetting("target", target);
+            if (targetLevel != null) {
+                options.add("-target");
+                options.add(targetLevel);
+            }
+        }
+        getLog().debug("Compiling the dispatcher with " + options);
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            Boolean success = compiler.getTask(null, fileManager, diagnostics, options, null,
+                                               fileManager.getJavaFileObjects(sourceFile)).call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                getLog().warn(diagnostic.toString());
+            if (!success)
+                throw new MojoExecutionException("the generated dispatcher didn't compile");
+        } finally {
+            try {
+                fileManager.close();
+            } catch (IOException ex) {
+                getLog().error(ex); // nothing else can be done
+            }
+        }
+    }
+
+    /**
+     * Return a setting from the configuration of the compiler plugin in the project, or the default
+     * if it isn't set there.
+     */
+    private String compilerSetting(String name, String defaultValue) {
+        Plugin compilerPlugin = project.getPlugin(COMPILER_PLUGIN);
+        if (compilerPlugin != null && compilerPlugin.getConfiguration() instanceof Xpp3Dom) {
+            Xpp3Dom setting = ((Xpp3Dom) compilerPlugin.getConfiguration()).getChild(name);
+            if (setting != null && setting.getValue() != null && setting.getValue().trim().length() != 0)
+                return setting.getValue().trim();
+        }
+        return defaultValue;
+    }
+
+    private static URL[] toUrls(List<String> classpath) throws MojoExecutionException {
+        URL[] urls = new URL[classpath.size()];
+        try {
+            for (int i = 0; i < urls.length; i++)
+                urls[i] = new File(classpath.get(i)).toURI().toURL();
+        } catch (MalformedURLException ex) {
+            throw new MojoExecutionException("classpath element isn't a valid URL", ex);
+        }
+        return urls;
+    }
+}
@@ -17,7 +17,13 @@
 package com.tbodt.jswerve.maven;
 
 import com.tbodt.jtl.Jtl;
+import com.tbodt.jtl.JtlException;
+import com.tbodt.jtl.TemplateResolver;
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -27,12 +33,17 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.DirectoryScanner;
 
 /**
- * A mojo that generates templates from JTL input.
+ * A mojo that generates templates from JTL input. Templates whose names start with {@code _} are
+ * partials and layouts, which are inlined into the templates that include or extend them instead of
+ * being generated on their own.
  *
  * @author Theodore Dubois
  */
 @Mojo(name = "generate-templates")
 public class GenerateTemplatesMojo extends AbstractMojo {
+    // goes into every hash, so that a different JTL or plugin, even a snapshot with the same version, generates everything again
+    private static final byte[] GENERATOR = fingerprintGenerator();
+
     @Parameter(defaultValue = "${basedir}/src/main/templates", readonly = true)
     private File sourceDirectory;
 
@@ -42,8 +53,29 @@ public class GenerateTemplatesMojo extends AbstractMojo {
     @Parameter(property = "project", readonly = true)
     private MavenProject project;
 
+    @Parameter(defaultValue = "${project.build.directory}/jswerve-templates.state", readonly = true)
+    private File stateFile;
+
+    /**
+     * Construct the mojo. Maven sets the parameters.
+     */
+    public GenerateTemplatesMojo() {
+    }
+
+    /**
+     * Construct the mojo with its parameters, to run it without Maven.
+     */
+    GenerateTemplatesMojo(File sourceDirectory, File outputDirectory, File stateFile, MavenProject project) {
+        this.sourceDirectory = sourceDirectory;
+        this.outputDirectory = outputDirectory;
+        this.stateFile = stateFile;
+        this.project = project;
+    }
+
     /**
-     * Executes the mojo.
+     * Executes the mojo. Templates that haven't changed since the last time, according to the state
+     * file, are skipped, and the rest are generated in parallel. Generated files for templates that
+     * no longer exist are deleted.
      *
      * @throws MojoExecutionException if something really bad happens
      */
@@ -52,52 +84,219 @@ public class GenerateTemplatesMojo extends AbstractMojo {
         scanner.addDefaultExcludes();
         scanner.setBasedir(sourceDirectory);
         scanner.setIncludes(new String[] {"**/*.jtl"});
-        scanner.scan();
+        if (sourceDirectory.isDirectory())
+            scanner.scan();
 
-        for (String templatePath : scanner.getIncludedFiles()) {
-            File template = new File(sourceDirectory, templatePath);
+        TemplateState oldState = TemplateState.load(stateFile);
+        final TemplateState state = new TemplateState();
+        List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+        for (String file : scanner.getIncludedFiles()) {
+            // partials and layouts are only ever inlined into other templates
+            if (new File(file).getName().startsWith("_"))
+                continue;
+            final String templatePath = file.replace(File.separatorChar, '/');
+
+            TemplateState.Entry entry = oldState.get(templatePath);
+            if (entry != null && isUpToDate(entry)) {
+                state.put(templatePath, entry);
+                continue;
+            }
+            jobs.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    state.put(templatePath, generate(templatePath));
+                    return null;
+                }
+            });
+        }
 
-            String templateClassName =
-                    StringUtils.removeEnd(templatePath, ".jtl")
-                    .replace('.', '_')
-                    .replace(File.separatorChar, '.');
+        runJobs(jobs);
+        getLog().info("Generated " + jobs.size() + " templates, " + state.getTemplates().size() + " in all");
 
-            int lastDot = templateClassName.lastIndexOf('.');
-            String templatePackage = templateClassName.substring(0, lastDot);
-            String templateName = templateClassName.substring(lastDot + 1);
+        Set<String> outputs = new HashSet<String>();
+        for (String template : state.getTemplates())
+            outputs.add(state.get(template).getOutput());
+        for (String template : oldState.getTemplates()) {
+            String output = oldState.get(template).getOutput();
+            if (!outputs.contains(output) && new File(outputDirectory, output.replace('/', File.separatorChar)).delete())
+                getLog().info("Deleted " + output + ", since " + template + " is gone");
+        }
 
-            File outputFile = new File(outputDirectory,
-                                       templateClassName.replace('.', File.separatorChar) + ".java");
-            Reader input = null;
-            PrintWriter output = null;
-            try {
-                input = new FileReader(template);
-                getLog().debug(String.valueOf(outputFile.getParentFile().mkdirs()));
-                output = new PrintWriter(new FileWriter(outputFile));
-
-                output.println("package " + templatePackage + ";");
-                output.println();
-                output.println("public class " + templateName + " implements com.tbodt.jswerve.Template {");
-                output.println("    @Override");
-                output.println("    public String render() {");
-                output.write(Jtl.generateCode(input));
-                output.println("    }");
-                output.println("}");
-            } catch (IOException ioe) {
-                throw new MojoExecutionException("IOException!", ioe);
-            } finally {
-                if (input != null)
-                    try {
-                        input.close();
-                    } catch (IOException ex) {
-                        getLog().error(ex); // nothing else can be done
-                    }
-                if (output != null)
-                    output.close();
-            }
+        try {
+            state.save(stateFile);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("couldn't save " + stateFile, ex);
         }
 
         // notify maven of the new output directory
         project.addCompileSourceRoot(outputDirectory.getPath());
     }
+
+    private void runJobs(List<Callable<Void>> jobs) throws MojoExecutionException {
+        if (jobs.isEmpty())
+            return;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Future<Void> result : executor.invokeAll(jobs))
+                try {
+                    result.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof MojoExecutionException)
+                        throw (MojoExecutionException) ex.getCause();
+                    throw new MojoExecutionException("couldn't generate a template", ex.getCause());
+                }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("interrupted while generating templates", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate a template, and return its entry for the state file.
+     */
+    private TemplateState.Entry generate(String templatePath) throws MojoExecutionException {
+        String templateClassName =
+                StringUtils.removeEnd(templatePath, ".jtl")
+                .replace('.', '_')
+                .replace('/', '.');
+
+        int lastDot = templateClassName.lastIndexOf('.');
+        String templatePackage = lastDot == -1 ? "" : templateClassName.substring(0, lastDot);
+        String templateName = templateClassName.substring(lastDot + 1);
+
+        HashingResolver resolver = new HashingResolver();
+        String source;
+        try {
+            source = Jtl.generateClass(templatePath, resolver, templatePackage, templateName);
+        } catch (IOException ioe) {
+            throw new MojoExecutionException("IOException!", ioe);
+        } catch (JtlException ex) {
+            throw new MojoExecutionException(templatePath + ": " + ex.getMessage(), ex);
+        }
+
+        String output = templateClassName.replace('.', '/') + ".java";
+        File outputFile = new File(outputDirectory, output.replace('/', File.separatorChar));
+        PrintWriter writer = null;
+        try {
+            getLog().debug(String.valueOf(outputFile.getParentFile().mkdirs()));
+            writer = new PrintWriter(new FileWriter(outputFile));
+            writer.write(source);
+        } catch (IOException ioe) {
+            throw new MojoExecutionException("IOException!", ioe);
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+        return new TemplateState.Entry(resolver.getHash(), output, resolver.getSources());
+    }
+
+    /**
+     * Return whether the generated file for an entry still exists, and none of the sources that
+     * went into it have changed.
+     */
+    private boolean isUpToDate(TemplateState.Entry entry) {
+        if (!new File(outputDirectory, entry.getOutput().replace('/', File.separatorChar)).isFile())
+            return false;
+        HashingResolver resolver = new HashingResolver();
+        try {
+            for (String source : entry.getSources())
+                resolver.open(source).close();
+        } catch (IOException ex) {
+            return false; // an include is gone, so let generating it report the error
+        }
+        return resolver.getHash().equals(entry.getHash());
+    }
+
+    /**
+     * Opens templates under the source directory, and keeps a hash of everything it opens, in the
+     * order it opens them, after the fingerprint of the generator.
+     */
+    private final class HashingResolver implements TemplateResolver {
+        private final MessageDigest digest;
+        private final List<String> sources = new ArrayList<String>();
+
+        HashingResolver() {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("no SHA-1!", ex);
+            }
+            digest.update(GENERATOR);
+        }
+
+        @Override
+        public Reader open(String path) throws IOException {
+            byte[] bytes = readFile(new File(sourceDirectory, path.replace('/', File.separatorChar)));
+            digest.update(path.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(bytes);
+            sources.add(path);
+            // decoded the same way a FileReader would
+            return new InputStreamReader(new ByteArrayInputStream(bytes));
+        }
+
+        String getHash() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b & 0xff));
+            return hex.toString();
+        }
+
+        List<String> getSources() {
+            return sources;
+        }
+    }
+
+    /**
+     * Return a hash of everything that decides what a template is generated into: all of JTL, not
+     * just {@code Jtl} itself, and this plugin, which names the generated classes. Each is hashed
+     * whole, whether it's a JAR or a directory of classes.
+     */
+    private static byte[] fingerprintGenerator() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("no SHA-1!", ex);
+        }
+        for (Class<?> klass : new Class<?>[] {Jtl.class, GenerateTemplatesMojo.class})
+            try {
+                fingerprint(new File(klass.getProtectionDomain().getCodeSource().getLocation().toURI()), digest);
+            } catch (Exception ex) {
+                // there's no file to look at, so the version just won't be noticed
+                digest.update(klass.getName().getBytes());
+            }
+        return digest.digest();
+    }
+
+    private static void fingerprint(File file, MessageDigest digest) throws IOException {
+        if (file.isDirectory()) {
+            String[] children = file.list();
+            Arrays.sort(children); // so that the order doesn't depend on the file system
+            for (String child : children) {
+                digest.update(child.getBytes("UTF-8"));
+                fingerprint(new File(file, child), digest);
+            }
+        } else
+            digest.update(readFile(file));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        return readStream(new FileInputStream(file));
+    }
+
+    private static byte[] readStream(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                bytes.write(buffer, 0, count);
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
 }
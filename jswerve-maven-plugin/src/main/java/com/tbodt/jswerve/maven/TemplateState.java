@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.maven;
+
+import java.io.*;
+import java.util.*;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * What the templates mojo generated last time, so that it can skip templates that haven't changed
+ * and clean up after templates that were deleted. For every template, it records a hash of the
+ * template and everything it includes, the generated file, and the files that went into it. It's
+ * kept in a properties file, one line per template, with the fields separated by {@code |}.
+ *
+ * @author Theodore Dubois
+ */
+final class TemplateState {
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * Load the state from a file. If the file doesn't exist or can't be understood, the state is
+     * empty, and everything gets generated again.
+     *
+     * @param file the file
+     * @return the state
+     */
+    static TemplateState load(File file) {
+        TemplateState state = new TemplateState();
+        if (!file.isFile())
+            return state;
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException ex) {
+            return state;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // it's been read already
+                }
+        }
+        for (String template : properties.stringPropertyNames()) {
+            String[] fields = properties.getProperty(template).split("\\|");
+            if (fields.length < 3)
+                continue; // the template will just be generated again
+            state.entries.put(template, new Entry(fields[0], fields[1], Arrays.asList(fields).subList(2, fields.length)));
+        }
+        return state;
+    }
+
+    /**
+     * Save the state to a file.
+     *
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    void save(File file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            properties.setProperty(entry.getKey(), value.hash + "|" + value.output + "|" + StringUtils.join(value.sources, '|'));
+        }
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "generated by the JSwerve Maven plugin, do not edit");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Return the entry for a template, or {@code null} if there isn't one.
+     */
+    Entry get(String template) {
+        return entries.get(template);
+    }
+
+    /**
+     * Record the entry for a template.
+     */
+    synchronized void put(String template, Entry entry) {
+        entries.put(template, entry);
+    }
+
+    /**
+     * Return the templates that have entries.
+     */
+    Set<String> getTemplates() {
+        return entries.keySet();
+    }
+
+    /**
+     * What was generated for one template.
+     */
+    static final class Entry {
+        private final String hash;
+        private final String output;
+        private final List<String> sources;
+
+        /**
+         * @param hash the hash of the sources
+         * @param output the path of the generated file, relative to the output directory
+         * @param sources the paths of the template and everything it includes, in the order they
+         * were read
+         */
+        Entry(String hash, String output, List<String> sources) {
+            this.hash = hash;
+            this.output = output;
+            this.sources = sources;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        String getOutput() {
+            return output;
+        }
+
+        List<String> getSources() {
+            return sources;
+        }
+    }
+}
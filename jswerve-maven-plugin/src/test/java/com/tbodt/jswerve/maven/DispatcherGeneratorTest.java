@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.maven;
+
+import com.tbodt.jswerve.*;
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class DispatcherGeneratorTest {
+    public static class TestController extends Controller {
+        public void action() {
+        }
+    }
+
+    public static class TestRoutes extends RoutesDefiner {
+        public TestRoutes() {
+            super(
+                    get("/").to(TestController.class, "action"),
+                    get("/users").to(TestController.class, "action"),
+                    post("/users").to(TestController.class, "action"),
+                    get("/users/:id").to(TestController.class, "action"),
+                    // only POST gets here, GET goes to the one before
+                    match("/users/new").via(HttpMethod.GET, HttpMethod.POST).to(TestController.class, "action"),
+                    get("/:thing/edit").to(TestController.class, "action"),
+                    get("/users/:id/edit").to(TestController.class, "action"),
+                    // these two have the same hash code
+                    get("/Aa/:id").to(TestController.class, "action"),
+                    get("/BB/:id").to(TestController.class, "action"),
+                    match("/:/x/:").via(HttpMethod.PUT, HttpMethod.DELETE).to(TestController.class, "action"),
+                    get("/x\"y").to(TestController.class, "action")
+            );
+        }
+    }
+
+    private static final String[] COMPONENTS = {"users", "new", "edit", "Aa", "BB", "x", "42", "x\"y"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Dispatcher compile(DispatcherGenerator generator) throws Exception {
+        File sources = folder.newFolder("sources");
+        File classes = folder.newFolder("classes");
+        File source = new File(sources, generator.getDispatcherName().replace('.', File.separatorChar) + ".java");
+        source.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(source), "UTF-8");
+        try {
+            out.write(generator.generate());
+        } finally {
+            out.close();
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"),
+                "-d", classes.getPath(), "-encoding", "UTF-8", source.getPath()));
+        ClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+        return (Dispatcher) loader.loadClass(generator.getDispatcherName()).newInstance();
+    }
+
+    @Test
+    public void testRoute() throws Exception {
+        Dispatcher dispatcher = compile(new DispatcherGenerator(TestRoutes.class));
+        List<Route> routes = new TestRoutes().getRoutes();
+
+        List<String> paths = new ArrayList<String>(Arrays.asList("/", "", "//users//42/", "/users/42/edit/", "/users/42/edit/more"));
+        List<String> shorter = Collections.singletonList("");
+        for (int length = 0; length < 3; length++) {
+            List<String> longer = new ArrayList<String>();
+            for (String path : shorter)
+                for (String component : COMPONENTS)
+                    longer.add(path + "/" + component);
+            paths.addAll(longer);
+            shorter = longer;
+        }
+        for (String path : paths)
+            for (HttpMethod method : HttpMethod.values())
+                assertEquals(method + " " + path, firstMatch(routes, method, path), dispatcher.route(method, path));
+    }
+
+    private static int firstMatch(List<Route> routes, HttpMethod method, String path) {
+        for (int i = 0; i < routes.size(); i++)
+            if (routes.get(i).getMethods().contains(method) && routes.get(i).matchesPath(path))
+                return i;
+        return -1;
+    }
+
+    @Test
+    public void testGetRoutes() throws Exception {
+        Dispatcher dispatcher = compile(new DispatcherGenerator(TestRoutes.class));
+        List<Route> routes = new TestRoutes().getRoutes();
+        String[] descriptions = dispatcher.getRoutes();
+        assertEquals(routes.size(), descriptions.length);
+        for (int i = 0; i < descriptions.length; i++)
+            assertEquals(routes.get(i).toString(), descriptions[i]);
+        assertEquals("GET /users/:id " + TestController.class.getName() + "#action", descriptions[3]);
+        assertEquals("GET /", descriptions[0].substring(0, descriptions[0].indexOf(' ', 4)));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jswerve.maven;
+
+import java.io.*;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class GenerateTemplatesMojoTest {
+    // what's written over generated files, to see whether they get generated again
+    private static final String STALE = "// stale";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sources;
+    private File outputs;
+    private File state;
+
+    @Before
+    public void setUp() throws IOException {
+        sources = folder.newFolder("templates");
+        outputs = folder.newFolder("generated");
+        state = new File(folder.getRoot(), "jswerve-templates.state");
+        write("site/_layout.html.jtl", "<@ params String title @><title><+ title +></title><@ content @>");
+        write("site/hello.html.jtl", "<@ extends _layout.html.jtl @>hello");
+        write("site/about.html.jtl", "about");
+    }
+
+    private void write(String template, String text) throws IOException {
+        File file = new File(sources, template);
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+    }
+
+    private File output(String name) {
+        return new File(outputs, "site/" + name + ".java");
+    }
+
+    private String read(File file) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            return in.readLine();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void generate() throws MojoExecutionException {
+        MavenProject project = new MavenProject();
+        new GenerateTemplatesMojo(sources, outputs, state, project).execute();
+        assertTrue(project.getCompileSourceRoots().contains(outputs.getPath()));
+    }
+
+    private void makeStale() throws IOException {
+        for (String name : new String[] {"hello_html", "about_html"}) {
+            Writer out = new FileWriter(output(name));
+            out.write(STALE);
+            out.close();
+        }
+    }
+
+    @Test
+    public void testGenerate() throws Exception {
+        generate();
+        assertTrue(output("hello_html").isFile());
+        assertTrue(output("about_html").isFile());
+        // layouts are only inlined
+        assertFalse(output("_layout_html").exists());
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        generate();
+        makeStale();
+        generate();
+        assertEquals(STALE, read(output("hello_html")));
+        assertEquals(STALE, read(output("about_html")));
+    }
+
+    @Test
+    public void testChanged() throws Exception {
+        generate();
+        makeStale();
+        write("site/about.html.jtl", "about us");
+        generate();
+        assertEquals(STALE, read(output("hello_html")));
+        assertFalse(STALE.equals(read(output("about_html"))));
+    }
+
+    @Test
+    public void testLayoutChanged() throws Exception {
+        generate();
+        makeStale();
+        // only the templates that extend the layout depend on it
+        write("site/_layout.html.jtl", "<@ params String title @><h1><+ title +></h1><@ content @>");
+        generate();
+        assertFalse(STALE.equals(read(output("hello_html"))));
+        assertEquals(STALE, read(output("about_html")));
+    }
+
+    @Test
+    public void testOutputDeleted() throws Exception {
+        generate();
+        makeStale();
+        assertTrue(output("hello_html").delete());
+        generate();
+        assertFalse(STALE.equals(read(output("hello_html"))));
+        assertEquals(STALE, read(output("about_html")));
+    }
+
+    @Test
+    public void testTemplateDeleted() throws Exception {
+        generate();
+        assertTrue(new File(sources, "site/about.html.jtl").delete());
+        generate();
+        assertFalse(output("about_html").exists());
+        assertTrue(output("hello_html").isFile());
+    }
+}
@@ -8,20 +8,35 @@ package com.tbodt.jswerve.servlet;
 import com.tbodt.jswerve.*;
 import com.tbodt.jswerve.core.*;
 import com.tbodt.jswerve.util.UrlUtils;
+import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.*;
 import java.util.*;
-import javax.servlet.ServletContext;
-import javax.servlet.ServletException;
+import javax.servlet.*;
 import javax.servlet.http.*;
-import org.apache.commons.io.IOUtils;
 
 /**
  *
  * @author Theodore Dubois
  */
 public class JSwerveServlet extends HttpServlet {
+    private static final Map<StatusCode, byte[]> errorBodies = new EnumMap<StatusCode, byte[]>(StatusCode.class);
+
+    static {
+        for (StatusCode code : StatusCode.values())
+            try {
+                errorBodies.put(code, (code + "\n").getBytes("US-ASCII"));
+            } catch (UnsupportedEncodingException ex) {
+                throw new WTFException("no US-ASCII!", ex);
+            }
+    }
+
     private Website website;
+    private long asyncTimeout;
+    private long maxBodySize;
+    private int bodyMemoryThreshold;
+    private File tempDirectory;
 
     @Override
     public void init() throws ServletException {
@@ -33,6 +48,85 @@ public class JSwerveServlet extends HttpServlet {
         } catch (InvalidWebsiteException ex) {
             throw new ServletException(ex);
         }
+        website.getRoutingTable().setCacheSize(intParameter("jswerve.routeCacheSize", 0));
+        website.setRecycleControllers(booleanParameter("jswerve.recycleControllers", false));
+        asyncTimeout = intParameter("jswerve.asyncTimeout", 30000);
+        website.setAsyncTimeout(asyncTimeout);
+        maxBodySize = longParameter("jswerve.maxBodySize", -1);
+        bodyMemoryThreshold = intParameter("jswerve.bodyMemoryThreshold", 64 * 1024);
+        tempDirectory = (File) ctx.getAttribute(ServletContext.TEMPDIR);
+        if (getServletContext().getInitParameter("jswerve.fragmentCacheSize") != null)
+            website.getFragmentCache().setMaxSize(intParameter("jswerve.fragmentCacheSize", 0));
+        initTemplateLoader();
+    }
+
+    /**
+     * If the {@code jswerve.templateDirectory} context parameter is set, compile the templates in
+     * that directory at runtime. A relative directory is in the web application.
+     */
+    private void initTemplateLoader() throws ServletException {
+        ServletContext ctx = getServletContext();
+        String directory = ctx.getInitParameter("jswerve.templateDirectory");
+        if (directory == null)
+            return;
+        File sourceDirectory = new File(directory.trim());
+        if (!sourceDirectory.isAbsolute())
+            sourceDirectory = new File(ctx.getRealPath(directory.trim()));
+        String cache = ctx.getInitParameter("jswerve.templateCache");
+        File cacheDirectory = cache != null ? new File(cache.trim()) : new File((File) ctx.getAttribute(ServletContext.TEMPDIR), "jswerve-templates");
+        try {
+            website.setTemplateLoader(new TemplateLoader(sourceDirectory, cacheDirectory, ctx.getClassLoader()),
+                    booleanParameter("jswerve.reloadTemplates", false));
+        } catch (IOException ex) {
+            throw new ServletException(ex);
+        } catch (InvalidWebsiteException ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    /**
+     * Return the context parameter with the given name as an integer. The servlet is registered
+     * automatically, so context parameters are the only way to configure it.
+     */
+    private int intParameter(String name, int defaultValue) throws ServletException {
+        String value = getServletContext().getInitParameter(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new ServletException("context parameter " + name + " is not an integer: " + value, ex);
+        }
+    }
+
+    /**
+     * Return the context parameter with the given name as a long.
+     */
+    private long longParameter(String name, long defaultValue) throws ServletException {
+        String value = getServletContext().getInitParameter(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new ServletException("context parameter " + name + " is not an integer: " + value, ex);
+        }
+    }
+
+    /**
+     * Return the context parameter with the given name as a boolean.
+     */
+    private boolean booleanParameter(String name, boolean defaultValue) throws ServletException {
+        String value = getServletContext().getInitParameter(name);
+        if (value == null)
+            return defaultValue;
+        value = value.trim();
+        if (value.equalsIgnoreCase("true"))
+            return true;
+        else if (value.equalsIgnoreCase("false"))
+            return false;
+        else
+            throw new ServletException("context parameter " + name + " is not true or false: " + value);
     }
 
     private void spiderWar(ServletContext ctx, String start, Set<Class<?>> classes) {
@@ -59,39 +153,45 @@ public class JSwerveServlet extends HttpServlet {
         HttpMethod method = HttpMethod.valueOf(req.getMethod());
         URI uri = extractUri(req);
         Headers headers = translateHeaders(req);
-        Content content = new Content(IOUtils.toByteArray(req.getInputStream()), req
-                .getContentType());
-        Request request = new Request(method, uri, headers, content);
+        // the body isn't read until something asks for it
+        RequestBody body = new RequestBody(req.getInputStream(), req.getContentLengthLong(), maxBodySize, bodyMemoryThreshold, tempDirectory);
+        Request request = new Request(method, uri, headers, new Content(body, req.getContentType()));
+        Responder responder = new Responder(resp, body);
+        Action action;
         try {
-            Response response = website.service(request);
-            resp.setStatus(response.getStatus().getCode());
-            for (Map.Entry<String, String> header : response.getHeaders())
-                resp.setHeader(header.getKey(), header.getValue());
-            resp.getOutputStream().write(response.getBody().getData());
+            action = admit(request, body);
         } catch (StatusCodeException ex) {
-            resp.setStatus(ex.getStatusCode().getCode());
-            ex.printStackTrace(resp.getWriter());
+            responder.requestFailed(ex);
+            responder.finishService(req);
+            return;
         }
+        website.service(request, action, responder);
+        responder.finishService(req);
+    }
+
+    /**
+     * Route the request and decide whether to accept it, before the body is read. Every request
+     * comes through here, with a body or without, so they're all routed the same way. The container
+     * sends {@code 100 Continue} to clients that expect it when the body is first read, so a client
+     * that waits for it doesn't send the body at all if the request is turned down here.
+     *
+     * @return the action that services the request
+     * @throws StatusCodeException if the request isn't accepted
+     */
+    private Action admit(Request request, RequestBody body) {
+        String expect = request.getHeaders().get(Headers.EXPECT);
+        if (expect != null && !expect.trim().equalsIgnoreCase("100-continue"))
+            throw StatusCodeException.of(StatusCode.EXPECTATION_FAILED);
+        Action action = website.route(request);
+        if (body.isDeclaredTooLarge())
+            throw StatusCodeException.of(StatusCode.REQUEST_ENTITY_TOO_LARGE);
+        return action;
     }
 
     private void serviceOptions(HttpServletRequest req, HttpServletResponse resp) throws ServletException {
-        EnumSet methods = EnumSet.noneOf(HttpMethod.class);
-        RoutingTable routingTable = website.getRoutingTable();
-        String path = extractUri(req).getPath();
-        for (Route route : routingTable.getRoutes())
-            if (route.matchesPath(path))
-                methods.addAll(route.getMethods());
-
-        if (!methods.isEmpty()) {
-            StringBuilder allowResponse = new StringBuilder();
-            Iterator i = methods.iterator();
-            while (i.hasNext()) {
-                allowResponse.append(i.next());
-                if (i.hasNext())
-                    allowResponse.append(",");
-            }
-            resp.setHeader("Allow", allowResponse.toString());
-        }
+        String allow = website.getRoutingTable().getAllowHeader(extractUri(req).getPath());
+        if (allow != null)
+            resp.setHeader(Headers.ALLOW, allow);
     }
 
     private URI extractUri(HttpServletRequest req) throws ServletException {
@@ -107,8 +207,130 @@ public class JSwerveServlet extends HttpServlet {
 
     private Headers translateHeaders(HttpServletRequest req) {
         Headers.Builder builder = Headers.builder();
-        for (String headerName : Collections.list(req.getHeaderNames()))
-            builder.header(headerName, req.getHeader(headerName));
+        Enumeration<String> names = req.getHeaderNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            Enumeration<String> values = req.getHeaders(name);
+            while (values.hasMoreElements())
+                builder.addHeader(name, values.nextElement());
+        }
         return builder.build();
     }
+
+    /**
+     * Writes the outcome of a request to the servlet response. If the outcome isn't known by the time
+     * the servlet is done servicing the request, the request is put into asynchronous mode, and the
+     * thread that renders the response completes it.
+     */
+    private final class Responder implements ResponseListener, AsyncListener {
+        private final HttpServletResponse resp;
+        private final RequestBody body;
+        private AsyncContext asyncContext;
+        private boolean done;
+        private IOException error;
+
+        Responder(HttpServletResponse resp, RequestBody body) {
+            this.resp = resp;
+            this.body = body;
+        }
+
+        @Override
+        public synchronized void responseRendered(Response response) {
+            if (done)
+                return; // too late, the request timed out
+            done = true;
+            try {
+                resp.setStatus(response.getStatus().getCode());
+                for (Map.Entry<String, String> header : response.getHeaders())
+                    resp.addHeader(header.getKey(), header.getValue());
+                Content content = response.getBody();
+                long length = content.getLength();
+                if (length != -1)
+                    resp.setHeader(Headers.CONTENT_LENGTH, Long.toString(length));
+                // templates are rendered right here, straight into the response
+                content.writeTo(resp.getOutputStream());
+            } catch (IOException ex) {
+                error = ex;
+            } catch (RuntimeException ex) {
+                log("couldn't write the response", ex);
+                if (!resp.isCommitted()) {
+                    resp.reset();
+                    writeError(StatusCode.INTERNAL_SERVER_ERROR);
+                }
+            }
+            complete();
+        }
+
+        @Override
+        public synchronized void requestFailed(StatusCodeException failure) {
+            if (done)
+                return;
+            done = true;
+            // the stack trace goes in the log, where only we can see it
+            if (failure.getCause() != null)
+                log(failure.getMessage(), failure.getCause());
+            if (failure instanceof MethodNotAllowedException)
+                resp.setHeader(Headers.ALLOW, ((MethodNotAllowedException) failure).getAllow());
+            writeError(failure.getStatusCode());
+            complete();
+        }
+
+        private void writeError(StatusCode status) {
+            byte[] body = errorBodies.get(status);
+            resp.setStatus(status.getCode());
+            resp.setContentType("text/plain");
+            resp.setContentLength(body.length);
+            try {
+                resp.getOutputStream().write(body);
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+
+        private void complete() {
+            if (asyncContext == null)
+                return; // the servlet thread is still here, it'll finish up
+            if (error != null)
+                log("couldn't write an asynchronous response", error);
+            asyncContext.complete();
+        }
+
+        /**
+         * Called on the servlet thread once the website is done with the request. Either rethrow an
+         * error from writing the response, or go asynchronous if there is no response yet.
+         */
+        synchronized void finishService(HttpServletRequest req) throws IOException {
+            if (done) {
+                body.close();
+                if (error != null)
+                    throw error;
+                return;
+            }
+            asyncContext = req.startAsync();
+            asyncContext.setTimeout(asyncTimeout);
+            asyncContext.addListener(this);
+        }
+
+        @Override
+        public synchronized void onTimeout(AsyncEvent event) {
+            if (done)
+                return;
+            done = true;
+            resp.setStatus(StatusCode.SERVICE_UNAVAILABLE.getCode());
+            asyncContext.complete();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            body.close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
 }
@@ -15,6 +15,9 @@ import javax.servlet.*;
  */
 public final class JSwerveServletRegisterer implements ServletContainerInitializer {
     public void onStartup(Set<Class<?>> classes, ServletContext ctx) throws ServletException {
-        ctx.addServlet("jswerve-servlet", JSwerveServlet.class).addMapping("/*");
+        ServletRegistration.Dynamic registration = ctx.addServlet("jswerve-servlet", JSwerveServlet.class);
+        // asynchronous controllers need it
+        registration.setAsyncSupported(true);
+        registration.addMapping("/*");
     }
 }
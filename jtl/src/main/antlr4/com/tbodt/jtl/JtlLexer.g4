@@ -18,15 +18,17 @@ lexer grammar JtlLexer;
 
 BEGIN_EMBED: '<+' -> pushMode(CODE_MODE);
 BEGIN_CODE: '<{' -> pushMode(CODE_MODE);
+BEGIN_DIRECTIVE: '<@' -> pushMode(CODE_MODE);
 TEXT: ~[<]+ | '<';
 
 mode CODE_MODE;
 END_EMBED: '+>' -> popMode;
 END_CODE: '}>' -> popMode;
+END_DIRECTIVE: '@>' -> popMode;
 COMMENT: (
            '//' .*? '\r'? '\n'
          | '/*' .*? '*/'
          )                  -> type(CODE);
-STRING: '"' (. | ESC)*? '"' -> type(CODE);
-CODE: ~[+}"/]+ | '/';
+STRING: '"' (ESC | ~["\\])* '"' -> type(CODE);
+CODE: ~[+}@"/]+ | '/' | '+' | '}' | '@';
 fragment ESC: '\\' .;
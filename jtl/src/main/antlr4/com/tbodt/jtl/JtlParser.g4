@@ -21,7 +21,8 @@ options {
     tokenVocab = JtlLexer;
 }
 
-template: (text | embed | code)* EOF;
+template: (text | embed | code | directive)* EOF;
 text: TEXT+;
 embed: '<+' CODE* '+>';
 code: '<{' CODE* '}>';
+directive: '<@' CODE* '@>';
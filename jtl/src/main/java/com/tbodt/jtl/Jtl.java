@@ -18,15 +18,18 @@ package com.tbodt.jtl;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * A class with static methods that parse and generate code for JTL templates.
@@ -34,41 +37,432 @@ import org.apache.commons.lang3.StringEscapeUtils;
  * @author Theodore Dubois
  */
 public final class Jtl {
-    public static String generateCode(Reader jtl) throws IOException {
-        return generateCode(new ANTLRInputStream(jtl));
+    private static final String API = "com.tbodt.jswerve.";
+    // a char is at most 3 bytes in a class file, and a string constant can be at most 65535 bytes
+    private static final int MAX_CHUNK = 16384;
+    // a wild guess at how long an embed is, until the template has actually been rendered
+    private static final int EMBED_SIZE = 16;
+    // what the buffer of a cached fragment starts out as, since it's only rendered once in a while
+    private static final int FRAGMENT_SIZE = 256;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern PARAMETER = Pattern.compile("(.*\\S)\\s+([\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)", Pattern.DOTALL);
+
+    /**
+     * Generate the source of a template class out of a JTL template. The class extends
+     * {@code AbstractTemplate}, and streams its output to a {@code TemplateOutput}. Static text is
+     * encoded as UTF-8 once, when the class is loaded, and only embeds are encoded on every render.
+     *
+     * Embeds are escaped for HTML, unless they start with {@code =}: {@code <+ name +>} is escaped,
+     * and {@code <+= html +>} is output as it is.
+     *
+     * Everything between {@code <@ cache key; ttl @>} and {@code <@ endcache @>} is rendered once
+     * and then copied out of the {@code FragmentCache} of the {@code TemplateOutput} until it
+     * expires or is invalidated, or rendered every time if the output has no cache. The key is any
+     * expression, and the optional TTL is a number of seconds. Keys only have to be unique within
+     * a template, since the cache keeps every template's fragments apart.
+     *
+     * A template can declare typed parameters with a {@code <@ params Type name, Type name @>}
+     * directive. Each parameter becomes a final field of the class, set by a constructor that takes
+     * all the parameters in order, and the template's code uses the fields directly.
+     *
+     * @param jtl the JTL template
+     * @param packageName the package of the class, or the empty string for the default package
+     * @param className the simple name of the class
+     * @return the source of the class
+     * @throws IOException if the template can't be read
+     * @throws JtlException if the template is invalid
+     */
+    public static String generateClass(Reader jtl, String packageName, String className) throws IOException, JtlException {
+        return generateClass(resolve(JtlScanner.scan(read(jtl)), null, null, new ArrayList<String>()), packageName, className);
+    }
+
+    /**
+     * Generate the source of a template class out of the JTL template at a path, which can include
+     * and extend other templates.
+     *
+     * {@code <@ include path @>} inlines another template where it appears, and
+     * {@code <@ extends path @>} makes the template the content of a layout, in place of the
+     * layout's {@code <@ content @>} directive. Paths are relative to the directory of the template
+     * they appear in, or to the root of the templates if they start with {@code /}. Everything is
+     * resolved here, so the generated class is one flat render method, with text that ends up next
+     * to each other merged into one chunk. Parameters declared by included templates and layouts
+     * become parameters of the generated class too, after the template's own.
+     *
+     * @param path the path of the template, relative to the root of the templates
+     * @param resolver the resolver that finds templates by path
+     * @param packageName the package of the class, or the empty string for the default package
+     * @param className the simple name of the class
+     * @return the source of the class
+     * @throws IOException if a template can't be read
+     * @throws JtlException if a template is invalid, or the includes have a cycle
+     */
+    public static String generateClass(String path, TemplateResolver resolver, String packageName, String className) throws IOException, JtlException {
+        return generateClass(load(path, resolver, new ArrayList<String>()), packageName, className);
+    }
+
+    private static List<TemplatePart> load(String path, TemplateResolver resolver, List<String> stack) throws IOException, JtlException {
+        if (resolver == null)
+            throw new JtlException("can't include " + path + " without a resolver");
+        if (stack.contains(path)) {
+            StringBuilder cycle = new StringBuilder();
+            for (String included : stack.subList(stack.indexOf(path), stack.size()))
+                cycle.append(included).append(" -> ");
+            throw new JtlException("include cycle: " + cycle + path);
+        }
+        List<TemplatePart> parts;
+        Reader jtl = resolver.open(path);
+        try {
+            parts = JtlScanner.scan(read(jtl));
+        } finally {
+            jtl.close();
+        }
+        stack.add(path);
+        parts = resolve(parts, path, resolver, stack);
+        stack.remove(stack.size() - 1);
+        return parts;
+    }
+
+    /**
+     * Inline the includes and the layout of a template. Parameter declarations are moved to the
+     * front, so that the template's own parameters come before the ones of its layout and includes.
+     */
+    private static List<TemplatePart> resolve(List<TemplatePart> parts, String path, TemplateResolver resolver, List<String> stack) throws IOException, JtlException {
+        List<TemplatePart> parameters = new ArrayList<TemplatePart>();
+        List<TemplatePart> resolved = new ArrayList<TemplatePart>();
+        String layout = null;
+        for (TemplatePart part : parts)
+            if (part.getKind() != TemplatePart.Kind.DIRECTIVE)
+                resolved.add(part);
+            else if (part.getDirectiveName().equals("include"))
+                resolved.addAll(load(resolvePath(path, part.getDirectiveArgument()), resolver, stack));
+            else if (part.getDirectiveName().equals("extends"))
+                if (layout == null)
+                    layout = resolvePath(path, part.getDirectiveArgument());
+                else
+                    throw new JtlException("more than one extends directive in " + (path == null ? "template" : path));
+            else if (part.getDirectiveName().equals("params"))
+                parameters.add(part);
+            else
+                resolved.add(part); // content, or something for generateClass to complain about
+
+        if (layout != null) {
+            List<TemplatePart> content = resolved;
+            resolved = new ArrayList<TemplatePart>();
+            boolean hasContent = false;
+            for (TemplatePart part : load(layout, resolver, stack))
+                if (part.getKind() == TemplatePart.Kind.DIRECTIVE && part.getDirectiveName().equals("content")) {
+                    resolved.addAll(content);
+                    hasContent = true;
+                } else if (part.getKind() == TemplatePart.Kind.DIRECTIVE && part.getDirectiveName().equals("params"))
+                    parameters.add(part);
+                else
+                    resolved.add(part);
+            if (!hasContent)
+                throw new JtlException("layout " + layout + " has no content directive");
+        }
+        parameters.addAll(resolved);
+        return parameters;
+    }
+
+    /**
+     * Work out the path of a template that is included from another one.
+     */
+    private static String resolvePath(String from, String path) throws JtlException {
+        path = path.trim();
+        if (path.length() >= 2 && path.startsWith("\"") && path.endsWith("\""))
+            path = path.substring(1, path.length() - 1);
+        if (path.length() == 0)
+            throw new JtlException("missing path in include or extends directive");
+        String full;
+        if (path.startsWith("/"))
+            full = path.substring(1);
+        else if (from == null)
+            full = path;
+        else
+            full = from.substring(0, from.lastIndexOf('/') + 1) + path;
+
+        LinkedList<String> components = new LinkedList<String>();
+        for (String component : full.split("/"))
+            if (component.equals(".") || component.length() == 0)
+                continue;
+            else if (component.equals(".."))
+                if (components.isEmpty())
+                    throw new JtlException(path + " is outside of the templates");
+                else
+                    components.removeLast();
+            else
+                components.add(component);
+        return StringUtils.join(components, '/');
     }
 
-    private static String generateCode(CharStream jtl) {
-        JtlParser parser = new JtlParser(new CommonTokenStream(new JtlLexer(jtl)));
+    private static String generateClass(List<TemplatePart> parts, String packageName, String className) throws JtlException {
+        parts = mergeText(parts);
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        StringBuilder constants = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+        int chunks = 0;
+        long size = 0;
+        int fragments = 0;
+        // fragments are cached by the class name of the template, so keys don't clash between templates
+        String fullName = "\"" + (packageName.length() != 0 ? packageName + "." : "") + className + "\"";
+        LinkedList<Integer> openFragments = new LinkedList<Integer>();
+        LinkedList<String> fragmentTtls = new LinkedList<String>();
+        for (TemplatePart part : parts)
+            switch (part.getKind()) {
+                case TEXT:
+                    size += part.getText().getBytes(UTF8).length;
+                    for (String chunk : splitChunks(part.getText())) {
+                        String name = "_TEXT" + chunks++;
+                        constants.append("    private static final byte[] ").append(name).append(" = \"")
+                                .append(StringEscapeUtils.escapeJava(chunk)).append("\".getBytes(_UTF8);\n");
+                        body.append("        _out.write(").append(name).append(");\n");
+                    }
+                    break;
+                case EMBED:
+                    size += EMBED_SIZE;
+                    if (part.getText().startsWith("="))
+                        body.append("        _out.print(").append(part.getText().substring(1)).append(");\n");
+                    else
+                        body.append("        _out.printEscaped(").append(part.getText()).append(");\n");
+                    break;
+                case CODE:
+                    body.append("\n").append(part.getText()).append("\n");
+                    break;
+                case DIRECTIVE:
+                    if (part.getDirectiveName().equals("params"))
+                        addParameters(parameters, parseParameters(part.getDirectiveArgument()));
+                    else if (part.getDirectiveName().equals("cache")) {
+                        String[] keyAndTtl = splitCacheArgument(part.getDirectiveArgument());
+                        int n = fragments++;
+                        openFragments.push(n);
+                        fragmentTtls.push(keyAndTtl[1]);
+                        body.append("        String _key").append(n).append(" = String.valueOf(").append(keyAndTtl[0]).append(");\n");
+                        body.append("        " + API + "FragmentCache _cache").append(n).append(" = _out.getFragmentCache();\n");
+                        body.append("        byte[] _fragment").append(n).append(" = _cache").append(n).append(" == null ? null : _cache").append(n)
+                                .append(".get(").append(fullName).append(", _key").append(n).append(");\n");
+                        body.append("        if (_fragment").append(n).append(" == null) {\n");
+                        body.append("        " + API + "TemplateOutput _parent").append(n).append(" = _out;\n");
+                        body.append("        _out = new " + API + "TemplateOutput(" + FRAGMENT_SIZE + ");\n");
+                        body.append("        _out.setFragmentCache(_cache").append(n).append(");\n");
+                    } else if (part.getDirectiveName().equals("endcache")) {
+                        if (openFragments.isEmpty())
+                            throw new JtlException("endcache directive without a cache directive");
+                        int n = openFragments.pop();
+                        String ttl = fragmentTtls.pop();
+                        body.append("        _fragment").append(n).append(" = _out.toByteArray();\n");
+                        body.append("        _out = _parent").append(n).append(";\n");
+                        body.append("        if (_cache").append(n).append(" != null)\n");
+                        body.append("        _cache").append(n).append(".put(").append(fullName).append(", _key").append(n).append(", _fragment").append(n)
+                                .append(", ").append(ttl == null ? "0" : "(long) (1000.0 * (" + ttl + "))").append(");\n");
+                        body.append("        }\n");
+                        body.append("        _out.write(_fragment").append(n).append(");\n");
+                    } else if (part.getDirectiveName().equals("content"))
+                        throw new JtlException("content directive outside of a layout");
+                    else
+                        throw new JtlException("unknown directive " + part.getDirectiveName());
+                    break;
+            }
+
+        if (!openFragments.isEmpty())
+            throw new JtlException("cache directive without an endcache directive");
+
+        StringBuilder builder = new StringBuilder();
+        if (packageName.length() != 0)
+            builder.append("package ").append(packageName).append(";\n\n");
+        builder.append("public class ").append(className).append(" extends " + API + "AbstractTemplate {\n");
+        if (chunks != 0) {
+            builder.append("    private static final java.nio.charset.Charset _UTF8 = java.nio.charset.Charset.forName(\"UTF-8\");\n");
+            builder.append(constants);
+        }
+        // the estimate starts out as the size of the static text, and learns the rest as it goes
+        builder.append("    private static final " + API + "SizeEstimate _SIZE = new " + API + "SizeEstimate(")
+                .append(Math.min(size, Integer.MAX_VALUE)).append(");\n\n");
+        if (!parameters.isEmpty())
+            generateConstructor(parameters, className, builder);
+        builder.append("    @Override\n");
+        builder.append("    protected " + API + "SizeEstimate getSizeEstimate() {\n");
+        builder.append("        return _SIZE;\n");
+        builder.append("    }\n\n");
+        builder.append("    @Override\n");
+        builder.append("    public void render(" + API + "TemplateOutput _out) throws java.io.IOException {\n");
+        builder.append(body);
+        builder.append("    }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private static void generateConstructor(List<Parameter> parameters, String className, StringBuilder builder) {
+        for (Parameter parameter : parameters) {
+            // a varargs parameter is an array once it's in a field
+            String type = parameter.type.endsWith("...") ? StringUtils.removeEnd(parameter.type, "...") + "[]" : parameter.type;
+            builder.append("    private final ").append(type).append(" ").append(parameter.name).append(";\n");
+        }
+        builder.append("\n");
+        builder.append("    public ").append(className).append("(");
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i != 0)
+                builder.append(", ");
+            builder.append(parameters.get(i).type).append(" ").append(parameters.get(i).name);
+        }
+        builder.append(") {\n");
+        for (Parameter parameter : parameters)
+            builder.append("        this.").append(parameter.name).append(" = ").append(parameter.name).append(";\n");
+        builder.append("    }\n\n");
+    }
+
+    /**
+     * Add parameters to the list, skipping ones that are already in it. A template and its layout
+     * can both declare a parameter, as long as they agree on the type.
+     */
+    private static void addParameters(List<Parameter> parameters, List<Parameter> added) throws JtlException {
+        outer:
+        for (Parameter parameter : added) {
+            for (Parameter existing : parameters)
+                if (existing.name.equals(parameter.name))
+                    if (existing.type.equals(parameter.type))
+                        continue outer;
+                    else
+                        throw new JtlException("parameter " + parameter.name + " is declared as both "
+                                + existing.type + " and " + parameter.type);
+            parameters.add(parameter);
+        }
+    }
+
+    /**
+     * Parse a comma-separated list of Java parameter declarations. Commas inside generic type
+     * arguments don't separate parameters.
+     */
+    private static List<Parameter> parseParameters(String declarations) throws JtlException {
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        if (declarations.trim().length() == 0)
+            return parameters;
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= declarations.length(); i++) {
+            char c = i == declarations.length() ? ',' : declarations.charAt(i);
+            if (c == '<')
+                depth++;
+            else if (c == '>')
+                depth--;
+            else if (c == ',' && depth == 0) {
+                String declaration = declarations.substring(start, i).trim();
+                Matcher matcher = PARAMETER.matcher(declaration);
+                if (!matcher.matches())
+                    throw new JtlException("invalid parameter declaration \"" + declaration + "\"");
+                parameters.add(new Parameter(matcher.group(1), matcher.group(2)));
+                start = i + 1;
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Split the argument of a cache directive into the key and the TTL, which are separated by the
+     * last semicolon that isn't in a literal. The TTL is {@code null} if there isn't one.
+     */
+    private static String[] splitCacheArgument(String argument) throws JtlException {
+        int semicolon = -1;
+        char quote = 0;
+        for (int i = 0; i < argument.length(); i++) {
+            char c = argument.charAt(i);
+            if (quote != 0) {
+                if (c == '\\')
+                    i++;
+                else if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'')
+                quote = c;
+            else if (c == ';')
+                semicolon = i;
+        }
+        String key = (semicolon == -1 ? argument : argument.substring(0, semicolon)).trim();
+        String ttl = semicolon == -1 ? null : argument.substring(semicolon + 1).trim();
+        if (key.length() == 0)
+            throw new JtlException("missing key in cache directive");
+        if (ttl != null && ttl.length() == 0)
+            throw new JtlException("missing TTL after ; in cache directive");
+        return new String[] {key, ttl};
+    }
+
+    /**
+     * Split text into chunks that each fit in a string constant, without splitting surrogate pairs.
+     */
+    private static List<String> splitChunks(String text) {
+        List<String> chunks = new ArrayList<String>();
+        int start = 0;
+        while (text.length() - start > MAX_CHUNK) {
+            int end = start + MAX_CHUNK;
+            if (Character.isHighSurrogate(text.charAt(end - 1)))
+                end--;
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        chunks.add(text.substring(start));
+        return chunks;
+    }
+
+    /**
+     * Merge runs of text that are next to each other, which happens when templates are inlined.
+     */
+    private static List<TemplatePart> mergeText(List<TemplatePart> parts) {
+        List<TemplatePart> merged = new ArrayList<TemplatePart>();
+        StringBuilder text = null;
+        for (TemplatePart part : parts)
+            if (part.getKind() == TemplatePart.Kind.TEXT) {
+                if (text == null)
+                    text = new StringBuilder();
+                text.append(part.getText());
+            } else {
+                if (text != null)
+                    merged.add(new TemplatePart(TemplatePart.Kind.TEXT, text.toString()));
+                text = null;
+                merged.add(part);
+            }
+        if (text != null)
+            merged.add(new TemplatePart(TemplatePart.Kind.TEXT, text.toString()));
+        return merged;
+    }
+
+    private static CharSequence read(Reader reader) throws IOException {
+        StringBuilder jtl = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1)
+            jtl.append(buffer, 0, count);
+        return jtl;
+    }
+
+    /**
+     * Parse a template into its parts with the ANTLR grammar. Templates are really parsed by
+     * {@link JtlScanner}, which is much faster; the grammar is the reference it's tested against.
+     */
+    static List<TemplatePart> parse(JtlParser parser) {
         ParseTree tree = parser.template();
         ParseTreeWalker walker = new ParseTreeWalker();
-        final StringBuilder builder = new StringBuilder();
-        builder.append("StringBuilder _builder = new StringBuilder();\n");
+        final List<TemplatePart> parts = new ArrayList<TemplatePart>();
         ParseTreeListener listener = new JtlParserBaseListener() {
             @Override
             public void enterText(JtlParser.TextContext ctx) {
-                builder.append("_builder.append(\"");
-                builder.append(StringEscapeUtils.escapeJava(ctx.getText()));
-                builder.append("\");\n");
+                parts.add(new TemplatePart(TemplatePart.Kind.TEXT, ctx.getText()));
             }
 
             @Override
             public void enterEmbed(JtlParser.EmbedContext ctx) {
-                builder.append("_builder.append(");
-                builder.append(combineText(ctx.CODE()));
-                builder.append(");\n");
+                parts.add(new TemplatePart(TemplatePart.Kind.EMBED, combineText(ctx.CODE())));
             }
 
             @Override
             public void enterCode(JtlParser.CodeContext ctx) {
-                builder.append("\n");
-                builder.append(combineText(ctx.CODE()));
-                builder.append("\n");
+                parts.add(new TemplatePart(TemplatePart.Kind.CODE, combineText(ctx.CODE())));
+            }
+
+            @Override
+            public void enterDirective(JtlParser.DirectiveContext ctx) {
+                parts.add(new TemplatePart(TemplatePart.Kind.DIRECTIVE, combineText(ctx.CODE())));
             }
         };
         walker.walk(listener, tree);
-        builder.append("return _builder.toString();\n");
-        return builder.toString();
+        return parts;
     }
 
     private static String combineText(List<TerminalNode> tokens) {
@@ -78,6 +472,16 @@ public final class Jtl {
         return builder.toString();
     }
 
+    private static final class Parameter {
+        private final String type;
+        private final String name;
+
+        Parameter(String type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+    }
+
     private Jtl() {
     }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jtl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a JTL template into its parts in one pass over the characters. It accepts the same
+ * language as the ANTLR grammar in {@code JtlLexer.g4} and {@code JtlParser.g4}, and produces the
+ * same parts, but text is copied out a whole run at a time instead of one token per {@code <}.
+ *
+ * Inside a tag, string literals and comments are skipped over, so a {@code +>} in a string doesn't
+ * end the tag. Like in the grammar, a {@code //} comment that never reaches the end of a line and a
+ * {@code /*} comment that is never closed are just code.
+ *
+ * @author Theodore Dubois
+ */
+final class JtlScanner {
+    private final CharSequence jtl;
+    private final List<TemplatePart> parts = new ArrayList<TemplatePart>();
+    private int pos;
+
+    private JtlScanner(CharSequence jtl) {
+        this.jtl = jtl;
+    }
+
+    /**
+     * Split a template into its parts.
+     *
+     * @param jtl the template
+     * @return the parts of the template
+     * @throws JtlException if a tag isn't closed, is closed with the wrong delimiter, or has a
+     * string literal that isn't closed
+     */
+    static List<TemplatePart> scan(CharSequence jtl) throws JtlException {
+        JtlScanner scanner = new JtlScanner(jtl);
+        scanner.scanTemplate();
+        return scanner.parts;
+    }
+
+    private void scanTemplate() throws JtlException {
+        int length = jtl.length();
+        int textStart = 0;
+        while (pos < length) {
+            TemplatePart.Kind kind = jtl.charAt(pos) == '<' && pos + 1 < length ? tagKind(jtl.charAt(pos + 1)) : null;
+            if (kind == null) {
+                pos++;
+                continue;
+            }
+            if (pos > textStart)
+                parts.add(new TemplatePart(TemplatePart.Kind.TEXT, jtl.subSequence(textStart, pos).toString()));
+            int tagStart = pos;
+            pos += 2;
+            int codeStart = pos;
+            char close = scanCode(tagStart);
+            if (close != closer(kind))
+                throw error("<" + opener(kind) + " closed with " + close + ">", tagStart);
+            parts.add(new TemplatePart(kind, jtl.subSequence(codeStart, pos - 2).toString()));
+            textStart = pos;
+        }
+        if (pos > textStart)
+            parts.add(new TemplatePart(TemplatePart.Kind.TEXT, jtl.subSequence(textStart, pos).toString()));
+    }
+
+    /**
+     * Skip over the code in a tag, up to and including whatever delimiter ends it, and return the
+     * first character of the delimiter.
+     */
+    private char scanCode(int tagStart) throws JtlException {
+        int length = jtl.length();
+        while (pos < length) {
+            char c = jtl.charAt(pos);
+            char next = pos + 1 < length ? jtl.charAt(pos + 1) : 0;
+            if ((c == '+' || c == '}' || c == '@') && next == '>') {
+                pos += 2;
+                return c;
+            } else if (c == '"')
+                skipString();
+            else if (c == '/' && next == '/')
+                pos = skipLineComment();
+            else if (c == '/' && next == '*')
+                pos = skipBlockComment();
+            else
+                pos++;
+        }
+        throw error("unclosed tag", tagStart);
+    }
+
+    private void skipString() throws JtlException {
+        int start = pos;
+        for (pos++; pos < jtl.length(); pos++)
+            if (jtl.charAt(pos) == '"') {
+                pos++;
+                return;
+            } else if (jtl.charAt(pos) == '\\')
+                pos++;
+        throw error("unclosed string literal", start);
+    }
+
+    /**
+     * Return where the line comment at {@code pos} ends, or just past its first slash if there is
+     * no newline after it, in which case it isn't a comment.
+     */
+    private int skipLineComment() {
+        for (int i = pos + 2; i < jtl.length(); i++)
+            if (jtl.charAt(i) == '\n')
+                return i + 1;
+        return pos + 1;
+    }
+
+    /**
+     * Return where the block comment at {@code pos} ends, or just past its first slash if it is
+     * never closed, in which case it isn't a comment.
+     */
+    private int skipBlockComment() {
+        for (int i = pos + 2; i + 1 < jtl.length(); i++)
+            if (jtl.charAt(i) == '*' && jtl.charAt(i + 1) == '/')
+                return i + 2;
+        return pos + 1;
+    }
+
+    private JtlException error(String message, int at) {
+        int line = 1;
+        for (int i = 0; i < at; i++)
+            if (jtl.charAt(i) == '\n')
+                line++;
+        return new JtlException(message + " at line " + line);
+    }
+
+    private static TemplatePart.Kind tagKind(char c) {
+        switch (c) {
+            case '+':
+                return TemplatePart.Kind.EMBED;
+            case '{':
+                return TemplatePart.Kind.CODE;
+            case '@':
+                return TemplatePart.Kind.DIRECTIVE;
+            default:
+                return null;
+        }
+    }
+
+    private static char opener(TemplatePart.Kind kind) {
+        switch (kind) {
+            case EMBED:
+                return '+';
+            case CODE:
+                return '{';
+            default:
+                return '@';
+        }
+    }
+
+    private static char closer(TemplatePart.Kind kind) {
+        switch (kind) {
+            case EMBED:
+                return '+';
+            case CODE:
+                return '}';
+            default:
+                return '@';
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jtl;
+
+/**
+ * A piece of a parsed template: a run of static text, an embedded expression, a block of code, or a
+ * directive.
+ *
+ * @author Theodore Dubois
+ */
+final class TemplatePart {
+    /**
+     * The kinds of template parts.
+     */
+    enum Kind {
+        TEXT, EMBED, CODE, DIRECTIVE
+    }
+
+    private final Kind kind;
+    private final String text;
+
+    TemplatePart(Kind kind, String text) {
+        this.kind = kind;
+        this.text = text;
+    }
+
+    /**
+     * Return the kind of the part.
+     *
+     * @return the kind of the part
+     */
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Return the text of the part. For static text this is the text itself, for embeds and code
+     * it's the Java code, and for directives it's everything between {@code <@} and {@code @>}.
+     *
+     * @return the text of the part
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Return the name of a directive, which is its first word.
+     *
+     * @return the name of the directive
+     */
+    String getDirectiveName() {
+        return text.trim().split("\\s+", 2)[0];
+    }
+
+    /**
+     * Return the argument of a directive, which is everything after its name, or the empty string.
+     *
+     * @return the argument of the directive
+     */
+    String getDirectiveArgument() {
+        String[] split = text.trim().split("\\s+", 2);
+        return split.length > 1 ? split[1] : "";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TemplatePart))
+            return false;
+        TemplatePart other = (TemplatePart) obj;
+        return kind == other.kind && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return kind.hashCode() * 31 + text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return kind + "[" + text + "]";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jtl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Finds the templates that other templates include or extend. Paths are always relative to the root
+ * of the templates, with {@code /} as the separator; {@link Jtl} works out what an include is
+ * relative to before asking for it.
+ *
+ * @author Theodore Dubois
+ */
+public interface TemplateResolver {
+
+    /**
+     * Open the template at the given path.
+     *
+     * @param path the path of the template, relative to the root of the templates
+     * @return a reader for the template, which the caller closes
+     * @throws IOException if the template doesn't exist or can't be read
+     */
+    Reader open(String path) throws IOException;
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jtl;
+
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the scanner against the ANTLR grammar.
+ *
+ * @author Theodore Dubois
+ */
+public class JtlScannerTest {
+    private static final String[] PIECES = {
+        "<", "<+", "<{", "<@", "+>", "}>", "@>", "+", "}", "@", ">", "{",
+        "\"", "\\", "\\\"", "/", "//", "/*", "*/", "*", "\n", "\r\n", " ", "a", "<p>", "x + 1", "café",
+    };
+
+    /**
+     * Parse the template with the grammar, or return {@code null} if the grammar finds an error.
+     */
+    private static List<TemplatePart> parseWithGrammar(String jtl) {
+        final boolean[] failed = new boolean[1];
+        ANTLRErrorListener listener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+                failed[0] = true;
+            }
+        };
+        JtlLexer lexer = new JtlLexer(new ANTLRInputStream(jtl));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(listener);
+        JtlParser parser = new JtlParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.addErrorListener(listener);
+        List<TemplatePart> parts = Jtl.parse(parser);
+        return failed[0] ? null : parts;
+    }
+
+    private static void assertSameAsGrammar(String jtl) {
+        List<TemplatePart> expected = parseWithGrammar(jtl);
+        List<TemplatePart> actual;
+        try {
+            actual = JtlScanner.scan(jtl);
+        } catch (JtlException ex) {
+            actual = null;
+        }
+        assertEquals(jtl, expected, actual);
+    }
+
+    @Test
+    public void testExamples() {
+        assertSameAsGrammar("");
+        assertSameAsGrammar("<html><body>a < b &lt; c</body></html>");
+        assertSameAsGrammar("<p><+ name +></p><{ for (String s : list) { }><li><+ s +></li><{ } }>");
+        assertSameAsGrammar("<@ params String name, java.util.Map<String, Integer> counts @>");
+        assertSameAsGrammar("<+ \"+>\" +>");
+        assertSameAsGrammar("<+ \"a\\\"b\" +>");
+        assertSameAsGrammar("<{ // }>\n }>");
+        assertSameAsGrammar("<{ // no newline }>");
+        assertSameAsGrammar("<{ // }>");
+        assertSameAsGrammar("<{ /* }> */ }>");
+        assertSameAsGrammar("<{ /* never closed }>");
+        assertSameAsGrammar("<{ x++; y += 1; }>");
+        assertSameAsGrammar("<+ a +>b<");
+    }
+
+    @Test
+    public void testErrors() {
+        for (String jtl : new String[] {"<+ x", "<+ x }>", "<{ x @>", "<+ \"+>", "<{ // }>\n"}) {
+            assertNull(jtl, parseWithGrammar(jtl));
+            try {
+                JtlScanner.scan(jtl);
+                fail(jtl);
+            } catch (JtlException ex) {
+                assertTrue(ex.getMessage().endsWith("at line 1"));
+            }
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder jtl = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++)
+                jtl.append(PIECES[random.nextInt(PIECES.length)]);
+            assertSameAsGrammar(jtl.toString());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Theodore Dubois
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tbodt.jtl;
+
+import java.io.*;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Theodore Dubois
+ */
+public class JtlTest {
+    private static TemplateResolver resolver(final String... pathsAndTemplates) {
+        final Map<String, String> templates = new HashMap<String, String>();
+        for (int i = 0; i < pathsAndTemplates.length; i += 2)
+            templates.put(pathsAndTemplates[i], pathsAndTemplates[i + 1]);
+        return new TemplateResolver() {
+            @Override
+            public Reader open(String path) throws IOException {
+                if (!templates.containsKey(path))
+                    throw new FileNotFoundException(path);
+                return new StringReader(templates.get(path));
+            }
+        };
+    }
+
+    private static List<TemplatePart> parse(String jtl) throws JtlException {
+        return JtlScanner.scan(jtl);
+    }
+
+    @Test
+    public void testParse() throws JtlException {
+        List<TemplatePart> parts = parse("<p>a < b</p><+ name +><{ if (x) { }>!<{ } }>");
+        assertEquals(5, parts.size());
+        assertEquals(TemplatePart.Kind.TEXT, parts.get(0).getKind());
+        assertEquals("<p>a < b</p>", parts.get(0).getText());
+        assertEquals(TemplatePart.Kind.EMBED, parts.get(1).getKind());
+        assertEquals(" name ", parts.get(1).getText());
+        assertEquals(TemplatePart.Kind.CODE, parts.get(2).getKind());
+        assertEquals(TemplatePart.Kind.TEXT, parts.get(3).getKind());
+        assertEquals("!", parts.get(3).getText());
+    }
+
+    @Test
+    public void testGenerateClass() throws IOException, JtlException {
+        String source = Jtl.generateClass(new StringReader("<p>café <+ name +></p>"), "com.example", "page_html");
+        assertTrue(source.startsWith("package com.example;\n"));
+        assertTrue(source.contains("public class page_html extends com.tbodt.jswerve.AbstractTemplate"));
+        assertTrue(source.contains("private static final byte[] _TEXT0 = \"<p>caf\\u00E9 \".getBytes(_UTF8);"));
+        assertTrue(source.contains("private static final byte[] _TEXT1 = \"</p>\".getBytes(_UTF8);"));
+        assertTrue(source.contains("_out.write(_TEXT0);\n        _out.printEscaped( name );\n        _out.write(_TEXT1);\n"));
+    }
+
+    @Test
+    public void testRawEmbed() throws IOException, JtlException {
+        String source = Jtl.generateClass(new StringReader("<+= html +><+ !flag +>"), "", "raw_html");
+        assertTrue(source.contains("_out.print( html );\n        _out.printEscaped( !flag );\n"));
+    }
+
+    @Test
+    public void testCache() throws IOException, JtlException {
+        String source = Jtl.generateClass(new StringReader("<@ cache \"nav;\" + user; 60 @>nav<@ cache 1 @>inner<@ endcache @><@ endcache @>"), "com.example", "cache_html");
+        assertTrue(source.contains("String _key0 = String.valueOf(\"nav;\" + user);"));
+        assertTrue(source.contains("_out = new com.tbodt.jswerve.TemplateOutput(256);"));
+        assertTrue(source.contains("_cache0.get(\"com.example.cache_html\", _key0);"));
+        assertTrue(source.contains("_cache1.put(\"com.example.cache_html\", _key1, _fragment1, 0);"));
+        assertTrue(source.contains("_cache0.put(\"com.example.cache_html\", _key0, _fragment0, (long) (1000.0 * (60)));"));
+
+        for (String jtl : new String[] {"<@ cache x @>", "<@ endcache @>", "<@ cache @><@ endcache @>", "<@ cache x; @><@ endcache @>"})
+            try {
+                Jtl.generateClass(new StringReader(jtl), "", "broken_html");
+                fail(jtl);
+            } catch (JtlException ex) {
+                // good
+            }
+    }
+
+    @Test
+    public void testLongText() throws IOException, JtlException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40000; i++)
+            text.append('x');
+        String source = Jtl.generateClass(new StringReader(text.toString()), "", "long_html");
+        assertFalse(source.contains("package"));
+        assertTrue(source.contains("_TEXT2"));
+        assertFalse(source.contains("_TEXT3"));
+    }
+
+    @Test
+    public void testLoneBraces() throws JtlException {
+        List<TemplatePart> parts = parse("<{ for (int i = 0; i < 3; i++) { }>x<{ } }><+ a + b +>");
+        assertEquals(" for (int i = 0; i < 3; i++) { ", parts.get(0).getText());
+        assertEquals(" } ", parts.get(2).getText());
+        assertEquals(" a + b ", parts.get(3).getText());
+    }
+
+    @Test
+    public void testParams() throws IOException, JtlException {
+        String source = Jtl.generateClass(new StringReader("<@ params String name, Map<String, Integer> counts, int... n @>hi"), "", "page_html");
+        assertTrue(source.contains("    private final String name;\n    private final Map<String, Integer> counts;\n    private final int[] n;\n"));
+        assertTrue(source.contains("    public page_html(String name, Map<String, Integer> counts, int... n) {\n"
+                + "        this.name = name;\n"));
+    }
+
+    @Test(expected = JtlException.class)
+    public void testUnknownDirective() throws IOException, JtlException {
+        Jtl.generateClass(new StringReader("<@ frobnicate @>"), "", "page_html");
+    }
+
+    @Test(expected = JtlException.class)
+    public void testBadParameter() throws IOException, JtlException {
+        Jtl.generateClass(new StringReader("<@ params String @>"), "", "page_html");
+    }
+
+    @Test
+    public void testIncludeAndExtends() throws IOException, JtlException {
+        TemplateResolver resolver = resolver(
+                "pages/index.html", "<@ params int count @><@ extends ../_layout.html @>[<@ include _part.html @>]",
+                "pages/_part.html", "part <+ count +>",
+                "_layout.html", "<@ params String title, int count @><h1><+ title +></h1><@ content @></body>");
+        String source = Jtl.generateClass("pages/index.html", resolver, "", "index_html");
+        // the page's parameters come first, and the layout's count is the same parameter
+        assertTrue(source.contains("    public index_html(int count, String title) {\n"));
+        // text from different files is merged
+        assertTrue(source.contains("_TEXT1 = \"</h1>[part \".getBytes(_UTF8);"));
+        assertTrue(source.contains("_TEXT2 = \"]</body>\".getBytes(_UTF8);"));
+        assertFalse(source.contains("_TEXT3"));
+    }
+
+    @Test
+    public void testIncludeCycle() throws IOException {
+        TemplateResolver resolver = resolver(
+                "a.html", "<@ include b.html @>",
+                "b.html", "<@ include /c.html @>",
+                "c.html", "<@ include ./a.html @>");
+        try {
+            Jtl.generateClass("a.html", resolver, "", "a_html");
+            fail("the include cycle wasn't detected");
+        } catch (JtlException ex) {
+            assertEquals("include cycle: a.html -> b.html -> c.html -> a.html", ex.getMessage());
+        }
+    }
+
+    @Test(expected = JtlException.class)
+    public void testLayoutWithoutContent() throws IOException, JtlException {
+        Jtl.generateClass("page.html", resolver("page.html", "<@ extends layout.html @>", "layout.html", "nothing"), "", "page_html");
+    }
+
+    @Test(expected = JtlException.class)
+    public void testConflictingParameters() throws IOException, JtlException {
+        Jtl.generateClass("page.html", resolver("page.html", "<@ params int x @><@ include part.html @>", "part.html", "<@ params String x @>"), "", "page_html");
+    }
+
+    @Test(expected = JtlException.class)
+    public void testIncludeWithoutResolver() throws IOException, JtlException {
+        Jtl.generateClass(new StringReader("<@ include part.html @>"), "", "page_html");
+    }
+}